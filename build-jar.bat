@@ -1,6 +1,10 @@
 @echo off
 echo Compiling class files...
-javac -cp bin/external/* -sourcepath src src/client/SonoClient.java -encoding utf8 -d bin/temp
+rem All of src/main is compiled, as libraries use classes the client never loads
+dir /s /b src\main\*.java > bin\sources.txt
+javac -cp bin/external/* -sourcepath src src/client/SonoClient.java @bin/sources.txt -encoding utf8 -d bin/temp
+del bin\sources.txt
+copy src\main\phl\*.tsv bin\temp\main\phl >nul
 cd bin/temp
 echo Creating SonoClient.jar...
 jar cfe ../SonoClient.jar client.SonoClient .
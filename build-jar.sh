@@ -1,6 +1,8 @@
 #!/bin/bash
 echo "Compiling class files..".
-javac -cp "bin/external/*" -sourcepath src "src/client/SonoClient.java" -encoding utf8 -d "bin/temp"
+# All of src/main is compiled, as libraries use classes the client never loads
+javac -cp "bin/external/*" -sourcepath src "src/client/SonoClient.java" $(find src/main -name "*.java") -encoding utf8 -d "bin/temp"
+cp src/main/phl/*.tsv "bin/temp/main/phl"
 cd bin/temp
 echo "Creating SonoClient.jar..."
 jar cfe "../SonoClient.jar" client.SonoClient .
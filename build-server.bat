@@ -1,6 +1,10 @@
 @echo off
 echo Compiling class files...
-javac -cp bin-server/external/* -sourcepath src src/server/SonoServer.java -encoding utf8 -d bin-server/temp
+rem All of src/main is compiled, as libraries use classes the server never loads
+dir /s /b src\main\*.java > bin-server\sources.txt
+javac -cp bin-server/external/* -sourcepath src src/server/SonoServer.java @bin-server/sources.txt -encoding utf8 -d bin-server/temp
+del bin-server\sources.txt
+copy src\main\phl\*.tsv bin-server\temp\main\phl >nul
 cd bin-server/temp
 echo Creating SonoServer.jar...
 jar cfe ../SonoServer.jar server.SonoServer .
@@ -1,6 +1,8 @@
 #!/bin/bash
 echo "Compiling class files..."
-javac -cp "bin-server/external/*" -sourcepath src "src/server/SonoServer.java" -encoding utf8 -d "bin-server/temp"
+# All of src/main is compiled, as libraries use classes the server never loads
+javac -cp "bin-server/external/*" -sourcepath src "src/server/SonoServer.java" $(find src/main -name "*.java") -encoding utf8 -d "bin-server/temp"
+cp src/main/phl/*.tsv "bin-server/temp/main/phl"
 cd bin-server/temp
 echo "Creating SonoServer.jar..."
 jar cfe "../SonoServer.jar" server.SonoServer .
@@ -0,0 +1,157 @@
+package bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import main.phl.Cascade;
+import main.phl.Feature;
+import main.phl.Hasher;
+import main.phl.Matrix;
+import main.phl.Phone;
+import main.phl.PhoneLoader;
+import main.phl.PhoneManager;
+import main.phl.Rule;
+import main.phl.Word;
+
+/**
+ * Compares the throughput of a rule cascade over a generated lexicon when each
+ * rule is interpreted in turn, when runs of rules are composed into
+ * transducers, and when the composed cascade is spread across cores.
+ *
+ * <pre>
+ * javac -cp bin/SonoClient.jar -d bin/temp src/bench/CascadeBenchmark.java
+ * java -cp bin/SonoClient.jar:bin/temp bench.CascadeBenchmark assets/hayes.tsv [words] [rounds]
+ * </pre>
+ */
+public class CascadeBenchmark {
+	private CascadeBenchmark() {
+		throw new IllegalStateException("CascadeBenchmark Utility Class");
+	}
+
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: bench.CascadeBenchmark <data.tsv> [words] [rounds]");
+			System.exit(1);
+		}
+		final int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		final PhoneManager pm = new PhoneLoader(args[0], false).getManager();
+		final List<Rule> rules = rules(pm);
+		final Word[] words = lexicon(pm, count, new Random(1));
+
+		final Cascade interpreted = new Cascade(pm, rules, null, false);
+		final Cascade compiled = new Cascade(pm, rules);
+		for (final String s : compiled.getUncompiled())
+			System.out.println(s);
+
+		final Word[] expected = sequential(interpreted, words);
+		if (!Arrays.equals(expected, sequential(compiled, words))
+				|| !Arrays.equals(expected, compiled.applyAll(words))) {
+			System.err.println("Compiled cascade differs from interpreted rules");
+			System.exit(1);
+		}
+
+		System.out.println(rules.size() + " rules, " + count + " words, " + rounds + " rounds");
+		for (int r = 0; r < rounds; r++) {
+			final long a = System.nanoTime();
+			sequential(interpreted, words);
+			final long b = System.nanoTime();
+			sequential(compiled, words);
+			final long c = System.nanoTime();
+			compiled.applyAll(words);
+			final long d = System.nanoTime();
+			System.out.printf("interpreted %10.0f words/s   compiled %10.0f words/s   parallel %10.0f words/s%n",
+					rate(count, b - a), rate(count, c - b), rate(count, d - c));
+		}
+	}
+
+	private static Word[] sequential(final Cascade cascade, final Word[] words) {
+		final Word[] results = new Word[words.length];
+		for (int i = 0; i < words.length; i++)
+			results[i] = cascade.apply(words[i]);
+		return results;
+	}
+
+	private static double rate(final int count, final long nanos) {
+		return count * 1e9 / nanos;
+	}
+
+	private static List<Rule> rules(final PhoneManager pm) {
+		final List<Rule> rules = new ArrayList<>();
+		// intervocalic voicing
+		rules.add(new Rule.Simple(matrix(pm, "-syl", "+cons", "-son"), list(matrix(pm, "+voice")),
+				list(matrix(pm, "+syl")), list(matrix(pm, "+syl"))));
+		// nasalisation before a nasal
+		rules.add(new Rule.Simple(matrix(pm, "+syl"), list(matrix(pm, "+nasal")), list(),
+				list(matrix(pm, "-syl", "+nasal"))));
+		// hiatus resolution by backness, bound from the search
+		rules.add(new Rule.Simple(matrix(pm, "+syl", "1back"), list(matrix(pm, "-syl")), list(),
+				list(matrix(pm, "+syl", "-back"))));
+		// final lengthening
+		rules.add(new Rule.Simple(matrix(pm, "+syl"), list(matrix(pm, "+long")), list(),
+				list(Rule.Variants.WORD_FINAL)));
+		// final devoicing
+		rules.add(new Rule.Simple(matrix(pm, "-syl", "-son"), list(matrix(pm, "-voice")), list(),
+				list(Rule.Variants.WORD_FINAL)));
+		// raising before a nasal
+		rules.add(new Rule.Simple(matrix(pm, "+syl", "-low"), list(matrix(pm, "+high")), list(),
+				list(matrix(pm, "+nasal"))));
+		// rounding after a labial
+		rules.add(new Rule.Simple(matrix(pm, "+syl", "+back"), list(matrix(pm, "+round")),
+				list(matrix(pm, "+LAB")), list()));
+		// vowel coalescence
+		rules.add(new Rule.DeleteBackward(matrix(pm, "+syl"), list(matrix(pm, "+long")), list(matrix(pm, "+syl")),
+				list()));
+		// geminate reduction
+		rules.add(new Rule.DeleteForward(matrix(pm, "-syl"), list(matrix(pm, "+long")), list(),
+				list(matrix(pm, "-syl"))));
+		// word-initial glottal onset
+		rules.add(new Rule.Simple(null, list(pm.interpretSegment("ʔ")), list(Rule.Variants.WORD_INITIAL),
+				list(matrix(pm, "+syl"))));
+		return rules;
+	}
+
+	/**
+	 * A matrix from features written as a quality followed by the feature name,
+	 * such as <code>+voice</code> or <code>1back</code>.
+	 */
+	private static Matrix matrix(final PhoneManager pm, final String... features) {
+		final Feature[] entries = new Feature[features.length];
+		for (int i = 0; i < features.length; i++)
+			entries[i] = new Feature(Hasher.hash(features[i].substring(1)),
+					Hasher.hash(features[i].substring(0, 1)));
+		return new Matrix(pm, entries);
+	}
+
+	private static List<Object> list(final Object... elements) {
+		return new ArrayList<>(Arrays.asList(elements));
+	}
+
+	private static Word[] lexicon(final PhoneManager pm, final int count, final Random random) {
+		final List<String> consonants = new ArrayList<>();
+		final List<String> vowels = new ArrayList<>();
+		for (final Phone p : pm.getBasePhones())
+			(p.getFeatureQuality(Hasher.hash("syl")) == Hasher.TRUE ? vowels : consonants).add(p.getSegment());
+
+		final Word[] words = new Word[count];
+		for (int i = 0; i < count; i++) {
+			final StringBuilder s = new StringBuilder();
+			final int syllables = 1 + random.nextInt(4);
+			for (int j = 0; j < syllables; j++) {
+				if (j > 0)
+					s.append('.');
+				if (random.nextInt(4) != 0)
+					s.append(consonants.get(random.nextInt(consonants.size())));
+				s.append(vowels.get(random.nextInt(vowels.size())));
+				if (random.nextInt(3) == 0)
+					s.append(consonants.get(random.nextInt(consonants.size())));
+			}
+			words[i] = pm.interpretSequence(s.toString());
+		}
+		return words;
+	}
+}
@@ -0,0 +1,118 @@
+package bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import main.phl.Feature;
+import main.phl.Hasher;
+import main.phl.Phone;
+import main.phl.PhoneLoader;
+import main.phl.PhoneManager;
+import main.phl.Rule;
+import main.phl.Word;
+import main.sono.Datum;
+
+/**
+ * Measures the cost of looking up words, rules and features in a map keyed by
+ * their values as the map grows, using keys equal to but distinct from those
+ * inserted. With content hashes the cost per lookup should stay flat.
+ *
+ * <pre>
+ * javac -cp bin/SonoClient.jar -d bin/temp src/bench/HashBenchmark.java
+ * java -cp bin/SonoClient.jar:bin/temp bench.HashBenchmark assets/hayes.tsv [max size] [lookups]
+ * </pre>
+ */
+public class HashBenchmark {
+	private HashBenchmark() {
+		throw new IllegalStateException("HashBenchmark Utility Class");
+	}
+
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: bench.HashBenchmark <data.tsv> [max size] [lookups]");
+			System.exit(1);
+		}
+		final int max = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		final int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+
+		final PhoneManager pm = new PhoneLoader(args[0], false).getManager();
+		final List<Phone> phones = pm.getBasePhones();
+		final int[] names = pm.getFeatureNames().stream().mapToInt(Integer::intValue).toArray();
+		final String[] qualities = { "+", "-", "0" };
+
+		// Keys are rebuilt from their index, so lookups use equal keys that are
+		// not the instances inserted and have not hashed themselves yet
+		final IntFunction<Datum> words = i -> new Datum(word(phones, new Random(i)));
+		final IntFunction<Datum> rules = i -> new Datum(rule(phones, new Random(i)));
+		final IntFunction<Datum> features = i -> new Datum(
+				new Feature(names[i / qualities.length], Hasher.hash(qualities[i % qualities.length])));
+
+		final Random random = new Random(1);
+		System.out.printf("%10s %14s %14s %14s%n", "size", "word ns", "rule ns", "feature ns");
+		for (int size = 1000; size <= max; size *= 10) {
+			System.out.printf("%10d %14.1f %14.1f %14.1f%n", size, lookup(words, size, lookups, random),
+					lookup(rules, size, lookups, random),
+					lookup(features, Math.min(size, names.length * qualities.length), lookups, random));
+		}
+	}
+
+	/**
+	 * The mean nanoseconds to look up a fresh copy of a key in a map of the first
+	 * keys, after a round to warm up. Copies are built in batches outside the
+	 * timed loop.
+	 */
+	private static double lookup(final IntFunction<Datum> key, final int size, final int lookups,
+			final Random random) {
+		final Map<Datum, Datum> map = new HashMap<>();
+		for (int i = 0; i < size; i++) {
+			final Datum d = key.apply(i);
+			map.put(d, d);
+		}
+		final Datum[] probes = new Datum[Math.min(size, lookups)];
+		long nanos = 0;
+		for (int round = 0; round < 2; round++) {
+			int found = 0;
+			nanos = 0;
+			for (int done = 0; done < lookups; done += probes.length) {
+				final int batch = Math.min(probes.length, lookups - done);
+				for (int j = 0; j < batch; j++)
+					probes[j] = key.apply(random.nextInt(size));
+				final long start = System.nanoTime();
+				for (int j = 0; j < batch; j++)
+					if (map.get(probes[j]) != null)
+						found++;
+				nanos += System.nanoTime() - start;
+			}
+			if (found != lookups)
+				throw new IllegalStateException("Lost " + (lookups - found) + " keys");
+		}
+		return (double) nanos / lookups;
+	}
+
+	private static Rule rule(final List<Phone> phones, final Random random) {
+		return new Rule.Simple(phones.get(random.nextInt(phones.size())),
+				list(phones.get(random.nextInt(phones.size()))), list(phones.get(random.nextInt(phones.size()))),
+				list(phones.get(random.nextInt(phones.size()))));
+	}
+
+	private static Word word(final List<Phone> phones, final Random random) {
+		final List<Phone> word = new ArrayList<>();
+		final List<Word.SyllableDelim> delimits = new ArrayList<>();
+		final int length = 2 + random.nextInt(7);
+		for (int i = 0; i < length; i++) {
+			word.add(phones.get(random.nextInt(phones.size())));
+			delimits.add(i > 0 && random.nextInt(3) == 0 ? Word.SyllableDelim.DELIM : Word.SyllableDelim.NULL);
+		}
+		return new Word(word, delimits);
+	}
+
+	private static List<Object> list(final Object... elements) {
+		return new ArrayList<>(Arrays.asList(elements));
+	}
+}
@@ -0,0 +1,140 @@
+package client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import main.phl.Cascade;
+import main.phl.PhoneManager;
+import main.phl.Rule;
+import main.phl.RuleTrace;
+
+/**
+ * Applies a cascade of rules to a list of transcriptions, one per line, writing
+ * each line followed by a tab and its result. Lines are read in batches handed
+ * to a pool of workers, and the reader waits for the oldest batch to be written
+ * once a few per worker are in flight, so memory stays bounded however long
+ * the list is. Results are written in input order.
+ */
+public class CorpusTransformer {
+	private static final int BATCH = 512;
+
+	private static final class Batch {
+		private final long first;
+		private final String[] lines;
+		private final String[] results;
+		private final String[] errors;
+
+		private Batch(final long first, final List<String> lines) {
+			this.first = first;
+			this.lines = lines.toArray(new String[0]);
+			this.results = new String[this.lines.length];
+			this.errors = new String[this.lines.length];
+		}
+	}
+
+	private final PhoneManager pm;
+	private final Cascade cascade;
+	private final int threads;
+	private final PrintStream stderr;
+	private long failures = 0;
+
+	public CorpusTransformer(final PhoneManager pm, final List<Rule> rules, final int threads,
+			final RuleTrace trace, final PrintStream stderr) {
+		this.pm = pm;
+		this.cascade = new Cascade(pm, rules, trace);
+		this.threads = Math.max(1, threads);
+		this.stderr = stderr;
+		// A traced cascade interprets every rule anyway
+		if (trace == null)
+			for (final String message : cascade.getUncompiled())
+				stderr.println(message);
+	}
+
+	/**
+	 * Transforms every line of the input, returning the number of lines read.
+	 */
+	public long transform(final BufferedReader in, final Writer out) throws IOException, InterruptedException {
+		final ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final ArrayDeque<Future<Batch>> pending = new ArrayDeque<>();
+		long count = 0;
+		try {
+			List<String> lines = new ArrayList<>(BATCH);
+			String line;
+			while ((line = in.readLine()) != null) {
+				lines.add(line);
+				if (lines.size() == BATCH) {
+					if (pending.size() >= threads * 2)
+						write(pending.poll(), out);
+					final Batch batch = new Batch(count, lines);
+					pending.add(pool.submit(() -> apply(batch)));
+					count += BATCH;
+					lines = new ArrayList<>(BATCH);
+				}
+			}
+			if (!lines.isEmpty()) {
+				final Batch batch = new Batch(count, lines);
+				pending.add(pool.submit(() -> apply(batch)));
+				count += lines.size();
+			}
+			while (!pending.isEmpty())
+				write(pending.poll(), out);
+		} finally {
+			pool.shutdownNow();
+		}
+		out.flush();
+		return count;
+	}
+
+	private Batch apply(final Batch batch) {
+		for (int i = 0; i < batch.lines.length; i++) {
+			final String line = batch.lines[i].trim();
+			if (line.isEmpty()) {
+				batch.results[i] = "";
+				continue;
+			}
+			try {
+				batch.results[i] = cascade.apply(pm.interpretSequence(line)).toString();
+			} catch (final RuntimeException e) {
+				batch.results[i] = "";
+				batch.errors[i] = e.getMessage() == null ? e.toString() : e.getMessage();
+			}
+		}
+		return batch;
+	}
+
+	private void write(final Future<Batch> future, final Writer out) throws IOException, InterruptedException {
+		final Batch batch;
+		try {
+			batch = future.get();
+		} catch (final ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		for (int i = 0; i < batch.lines.length; i++) {
+			if (batch.errors[i] != null) {
+				failures++;
+				stderr.println("Line " + (batch.first + i + 1) + " <" + batch.lines[i] + ">: " + batch.errors[i]);
+			}
+			out.write(batch.lines[i]);
+			out.write('\t');
+			out.write(batch.results[i]);
+			out.write('\n');
+		}
+	}
+
+	/**
+	 * The number of lines that could not be transformed, written with an empty
+	 * result.
+	 */
+	public long getFailures() {
+		return failures;
+	}
+}
@@ -6,14 +6,20 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 import client.io.ErrorOutput;
@@ -21,8 +27,11 @@ import client.io.StandardInput;
 import client.io.StandardOutput;
 import main.SonoWrapper;
 import main.phl.PhoneLoader;
+import main.phl.Rule;
+import main.phl.RuleTrace;
 import main.sono.Datum;
 import main.sono.Scope;
+import main.sono.err.SonoException;
 import main.sono.io.Input;
 import main.sono.io.Output;
 
@@ -43,19 +52,72 @@ public class SonoClient {
 	}
 
 	public static SonoWrapper startClient(final File filename, final boolean force, final boolean drawTree,
-			final Output stdout, final Output stderr, final Input stdin, final Scope override)
-			throws InterruptedException {
+			final Output stdout, final Output stderr, final Input stdin, final Scope override,
+			final RuleTrace trace) throws InterruptedException {
 		SonoWrapper.setGlobalOption("WEB", "FALSE");
 
 		PhoneLoader pl = null;
 
 		try {
-			pl = new PhoneLoader(SonoWrapper.getGlobalOption("DATA"), force);
+			pl = new PhoneLoader(SonoWrapper.getGlobalOption("DATA"), force,
+					"LAZY".equals(SonoWrapper.getGlobalOption("INVENTORY")));
 		} catch (final IOException e) {
 			e.printStackTrace();
 		}
 
-		return new SonoWrapper(pl, filename, stdout, stderr, stdin, drawTree, override);
+		return new SonoWrapper(pl, filename, stdout, stderr, stdin, drawTree, override, trace);
+	}
+
+	/**
+	 * Applies the rules bound to the name given by <code>-rules</code> in the
+	 * loaded file to every line of <code>-in</code>, writing to <code>-out</code>,
+	 * either defaulting to the standard streams. Returns whether every line was
+	 * transformed.
+	 */
+	private static boolean applyRules(final SonoWrapper center, final String[] args) {
+		final String name = getOption("-rules", args) == null ? "rules" : getOption("-rules", args);
+		final String input = getOption("-in", args);
+		final String output = getOption("-out", args);
+		try {
+			final Datum datum = center.run(".", null, name, false, null, null);
+			final List<Rule> rules = new ArrayList<>();
+			if (datum.getType() == Datum.Type.RULE) {
+				rules.add(datum.getRule(null, null));
+			} else {
+				for (final Datum d : datum.getVector(null, null))
+					rules.add(d.getRule(null, null));
+			}
+			final CorpusTransformer transformer = new CorpusTransformer(center.getManager(), rules,
+					Integer.getInteger("sono.apply.threads", Runtime.getRuntime().availableProcessors()),
+					center.getTrace(), System.err);
+			final long start = System.nanoTime();
+			final long count;
+			try (BufferedReader in = input == null
+					? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+					: Files.newBufferedReader(Paths.get(input), StandardCharsets.UTF_8)) {
+				if (output == null) {
+					count = transformer.transform(in,
+							new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+				} else {
+					try (BufferedWriter out = Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)) {
+						count = transformer.transform(in, out);
+					}
+				}
+			}
+			final double seconds = (System.nanoTime() - start) / 1e9;
+			System.err.println(String.format("Transformed %d words in %.3f s (%.0f words/s)", count, seconds,
+					count / Math.max(seconds, 1e-9)));
+			if (transformer.getFailures() > 0)
+				System.err.println(transformer.getFailures() + " words could not be transformed");
+			return transformer.getFailures() == 0;
+		} catch (final IOException e) {
+			System.err.println("Could not apply rules: " + e.getMessage());
+		} catch (final SonoException e) {
+			System.err.println("Could not apply rules: " + e.getMessage());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
 	}
 
 	public static void setPath() {
@@ -188,15 +250,28 @@ public class SonoClient {
 			loadData();
 		}
 
+		if (getOption("-lazy", args) != null)
+			SonoWrapper.setGlobalOption("INVENTORY", "LAZY");
+
+		final boolean derivations = getOption("-derivations", args) != null;
+		RuleTrace trace = null;
+		if (derivations || getOption("-trace", args) != null) {
+			trace = new RuleTrace(derivations, Integer.getInteger("sono.trace.derivations", 10000));
+			final RuleTrace report = trace;
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.print(report.report())));
+		}
+
 		File filename = null;
-		if (args.length > 0 && args[0].charAt(0) != '-') {
+		if (getOption("-apply", args) != null) {
+			filename = new File(getOption("-apply", args));
+		} else if (args.length > 0 && args[0].charAt(0) != '-') {
 			filename = new File(args[0]);
 		}
 
 		SonoWrapper center = null;
 		try {
 			center = startClient(filename, force, drawTree, new StandardOutput(), new ErrorOutput(),
-					new StandardInput(sc), null);
+					new StandardInput(sc), null, trace);
 		} catch (InterruptedException e1) {
 			System.err.println("Could not start client");
 			e1.printStackTrace();
@@ -204,6 +279,9 @@ public class SonoClient {
 			Thread.currentThread().interrupt();
 		}
 
+		if (getOption("-apply", args) != null)
+			System.exit(applyRules(center, args) ? 0 : 1);
+
 		if (filename == null) {
 			System.out.println("Sono " + SonoWrapper.VERSION);
 			System.out.println("Phonological Data Loaded From <" + SonoWrapper.getGlobalOption("DATA") + ">");
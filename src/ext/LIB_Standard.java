@@ -1,11 +1,22 @@
 package ext;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.InputMismatchException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import main.base.Library;
+import main.phl.Cascade;
+import main.phl.DerivationStore;
+import main.phl.Matrix;
+import main.phl.Phone;
+import main.phl.Rule;
+import main.phl.RuleCache;
+import main.phl.RuleTrace;
+import main.phl.Syllabifier;
+import main.phl.Word;
+import main.phl.TransformationCache;
 import main.sono.Datum;
 import main.sono.Function;
 import main.sono.Interpreter;
@@ -13,6 +24,7 @@ import main.sono.Token;
 import main.sono.io.Output;
 
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 class FThread extends Thread {
@@ -192,4 +204,170 @@ public class LIB_Standard extends Library {
 		}
 		return new Datum();
 	}
+
+	public Datum FUZZY_MATCH(final Datum[] data, final Token line, final Object[] overrides)
+			throws InterruptedException {
+		final Map.Entry<Phone, Integer> match = interpreter.getManager()
+				.fuzzyMatch(data[0].getMatrix(line, overrides));
+		if (match == null)
+			return new Datum();
+		return new Datum(new Datum[] { new Datum(match.getKey()), new Datum(match.getValue()) });
+	}
+
+	public Datum SUBWORD(final Datum[] data, final Token line, final Object[] overrides)
+			throws InterruptedException {
+		final Word word = data[0].getWord(line, overrides);
+		final int from = (int) data[1].getNumber(line, overrides);
+		final int to = (int) data[2].getNumber(line, overrides);
+		if (from < 0 || to > word.size() || from > to)
+			throw error("Subword [" + from + ", " + to + ") is out of bounds for a word of length " + word.size(),
+					line);
+		return new Datum(word.subword(from, to));
+	}
+
+	public Datum SYLLABIFY(final Datum[] data, final Token line, final Object[] overrides)
+			throws InterruptedException {
+		final List<Matrix> scale;
+		if (data[1].getType() == Datum.Type.NULL) {
+			scale = Syllabifier.defaultScale(interpreter.getManager());
+		} else {
+			scale = new ArrayList<>();
+			for (final Datum d : data[1].getVector(line, overrides))
+				scale.add(d.getMatrix(line, overrides));
+			if (scale.isEmpty())
+				throw error("A sonority scale needs at least one class", line);
+		}
+		final Syllabifier syllabifier = new Syllabifier(scale, (int) data[2].getNumber(line, overrides),
+				(int) data[3].getNumber(line, overrides));
+		if (data[0].getType() == Datum.Type.WORD)
+			return new Datum(syllabifier.syllabify(data[0].getWord(line, overrides)));
+		final Datum[] vector = data[0].getVector(line, overrides);
+		final Word[] words = new Word[vector.length];
+		for (int i = 0; i < words.length; i++)
+			words[i] = vector[i].getWord(line, overrides);
+		final Word[] results = syllabifier.syllabifyAll(words);
+		final Datum[] syllabified = new Datum[results.length];
+		for (int i = 0; i < results.length; i++)
+			syllabified[i] = new Datum(results[i]);
+		return new Datum(syllabified);
+	}
+
+	public Datum TRANSFORM_CACHE_STATS(final Token line, final Object[] overrides) {
+		final TransformationCache cache = interpreter.getManager().getTransformationCache();
+		final Map<String, Datum> stats = new HashMap<>();
+		stats.put("hits", new Datum(cache.getHits()));
+		stats.put("misses", new Datum(cache.getMisses()));
+		stats.put("evictions", new Datum(cache.getEvictions()));
+		stats.put("size", new Datum(cache.size()));
+		return new Datum(stats);
+	}
+
+	public Datum TRANSFORM_CACHE_CLEAR(final Token line, final Object[] overrides) {
+		interpreter.getManager().getTransformationCache().clear();
+		return new Datum();
+	}
+
+	public Datum CASCADE_REPORT(final Datum[] data, final Token line, final Object[] overrides)
+			throws InterruptedException {
+		final List<Rule> rules = new ArrayList<>();
+		for (final Datum d : data[0].getVector(line, overrides))
+			rules.add(d.getRule(line, overrides));
+		final List<String> report = new Cascade(interpreter.getManager(), rules).getUncompiled();
+		final Datum[] messages = new Datum[report.size()];
+		for (int i = 0; i < messages.length; i++)
+			messages[i] = new Datum(report.get(i));
+		return new Datum(messages);
+	}
+
+	public Datum RULE_CACHE_STATS(final Token line, final Object[] overrides) {
+		final RuleCache cache = interpreter.getManager().getRuleCache();
+		final Map<String, Datum> stats = new HashMap<>();
+		stats.put("hits", new Datum(cache.getHits()));
+		stats.put("misses", new Datum(cache.getMisses()));
+		stats.put("evictions", new Datum(cache.getEvictions()));
+		stats.put("size", new Datum(cache.size()));
+		stats.put("capacity", new Datum(cache.getCapacity()));
+		return new Datum(stats);
+	}
+
+	public Datum RULE_CACHE_SIZE(final Datum[] data, final Token line, final Object[] overrides)
+			throws InterruptedException {
+		interpreter.getManager().getRuleCache().setCapacity((int) data[0].getNumber(line, overrides));
+		return new Datum();
+	}
+
+	public Datum RULE_CACHE_CLEAR(final Token line, final Object[] overrides) {
+		interpreter.getManager().getRuleCache().clear();
+		return new Datum();
+	}
+
+	public Datum DERIVATION_STORE_STATS(final Token line, final Object[] overrides) {
+		final DerivationStore store = interpreter.getManager().getDerivationStore();
+		final Map<String, Datum> stats = new HashMap<>();
+		stats.put("reused", new Datum(store.getReused()));
+		stats.put("computed", new Datum(store.getComputed()));
+		stats.put("evictions", new Datum(store.getEvictions()));
+		stats.put("size", new Datum(store.size()));
+		stats.put("capacity", new Datum(store.getCapacity()));
+		return new Datum(stats);
+	}
+
+	public Datum DERIVATION_STORE_SIZE(final Datum[] data, final Token line, final Object[] overrides)
+			throws InterruptedException {
+		interpreter.getManager().getDerivationStore().setCapacity((int) data[0].getNumber(line, overrides));
+		return new Datum();
+	}
+
+	public Datum DERIVATION_STORE_CLEAR(final Token line, final Object[] overrides) {
+		interpreter.getManager().getDerivationStore().clear();
+		return new Datum();
+	}
+
+	public Datum TRACE_START(final Datum[] data, final Token line, final Object[] overrides)
+			throws InterruptedException {
+		interpreter.setTrace(
+				new RuleTrace(data[0].getBool(line, overrides), (int) data[1].getNumber(line, overrides)));
+		return new Datum();
+	}
+
+	public Datum TRACE_STOP(final Token line, final Object[] overrides) {
+		final RuleTrace trace = interpreter.getTrace();
+		interpreter.setTrace(null);
+		return traceDatum(trace);
+	}
+
+	public Datum TRACE_REPORT(final Token line, final Object[] overrides) {
+		return traceDatum(interpreter.getTrace());
+	}
+
+	private static Datum traceDatum(final RuleTrace trace) {
+		if (trace == null)
+			return new Datum();
+		final List<RuleTrace.Stats> stats = trace.getStats();
+		final Datum[] rules = new Datum[stats.size()];
+		for (int i = 0; i < rules.length; i++) {
+			final RuleTrace.Stats s = stats.get(i);
+			final Map<String, Datum> entry = new HashMap<>();
+			entry.put("rule", new Datum(s.getRule()));
+			entry.put("applications", new Datum(s.getApplications()));
+			entry.put("cached", new Datum(s.getCached()));
+			entry.put("tested", new Datum(s.getTested()));
+			entry.put("matches", new Datum(s.getMatches()));
+			entry.put("rewrites", new Datum(s.getRewrites()));
+			entry.put("nanos", new Datum(s.getNanos()));
+			rules[i] = new Datum(entry);
+		}
+		final List<List<Word>> derived = trace.getDerivations();
+		final Datum[] derivations = new Datum[derived.size()];
+		for (int i = 0; i < derivations.length; i++) {
+			final Datum[] steps = new Datum[derived.get(i).size()];
+			for (int j = 0; j < steps.length; j++)
+				steps[j] = new Datum(derived.get(i).get(j));
+			derivations[i] = new Datum(steps);
+		}
+		final Map<String, Datum> result = new HashMap<>();
+		result.put("rules", new Datum(rules));
+		result.put("derivations", new Datum(derivations));
+		return new Datum(result);
+	}
 }
\ No newline at end of file
@@ -6,6 +6,8 @@ import java.util.Map;
 
 import main.base.CommandManager;
 import main.phl.PhoneLoader;
+import main.phl.PhoneManager;
+import main.phl.RuleTrace;
 import main.sono.Datum;
 import main.sono.Interpreter;
 import main.sono.Scope;
@@ -45,6 +47,14 @@ public class SonoWrapper {
 		return new Datum();
 	}
 
+	public PhoneManager getManager() {
+		return sono.getManager();
+	}
+
+	public RuleTrace getTrace() {
+		return sono.getTrace();
+	}
+
 	public static String escape(final String s) {
 		return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\b", "\\b").replace("\n", "\\n")
 				.replace("\r", "\\r").replace("\f", "\\f").replace("\'", "\\'").replace("\"", "\\\"");
@@ -52,10 +62,21 @@ public class SonoWrapper {
 
 	public SonoWrapper(final PhoneLoader pl, final File filename, final Output stdout, final Output stderr,
 			final Input stdin, final boolean drawTree, final Scope override) throws InterruptedException {
+		this(pl, filename, stdout, stderr, stdin, drawTree, override, null);
+	}
+
+	/**
+	 * Starts an interpreter recording every rule it applies, including those in
+	 * the loaded file, in the given trace.
+	 */
+	public SonoWrapper(final PhoneLoader pl, final File filename, final Output stdout, final Output stderr,
+			final Input stdin, final boolean drawTree, final Scope override, final RuleTrace trace)
+			throws InterruptedException {
 		this.stderr = stderr;
 		final CommandManager command = new CommandManager();
 		sono = new Interpreter(override != null ? override : new Scope(null, null, false),
 				pl == null ? null : pl.getManager(), command, stdout, stderr, stdin);
+		sono.setTrace(trace);
 
 		try {
 			sono.runCode("", null, "load \"std.so\"", false, override, null);
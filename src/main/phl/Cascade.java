@@ -0,0 +1,169 @@
+package main.phl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * An ordered list of rules, each applied to the result of the last. Rules hold
+ * no state while applied, so a list of words is spread across cores and the
+ * results are returned in input order. Applications are recorded in the trace
+ * the cascade is given, if any. When
+ * the phone manager keeps derivations, a word seen before resumes after the
+ * last rule the cascades share.
+ * <p>
+ * Consecutive rules that rewrite one phone into one are composed into a
+ * {@link Transducer}, which reads each word once for all of them. A run is only
+ * split where its window would grow past {@link #MAX_WINDOW} phones. Every
+ * other rule is interpreted, as is every rule while the cascade is traced or
+ * derivations are kept, since a transducer has no stages in between.
+ */
+public class Cascade {
+	/**
+	 * The widest window of phones a transducer reads. Its states grow as a power
+	 * of it.
+	 */
+	public static final int MAX_WINDOW = 4;
+
+	private final PhoneManager pm;
+	private final Rule[] rules;
+	// prefixes[i] fingerprints rules 0 to i, in order
+	private final long[] prefixes;
+	private final RuleTrace trace;
+	// transducers[i] is set where a composed run of rules starts at rule i
+	private final Transducer[] transducers;
+	private final boolean compiled;
+
+	public Cascade(final PhoneManager pm, final List<Rule> rules) {
+		this(pm, rules, null);
+	}
+
+	public Cascade(final PhoneManager pm, final List<Rule> rules, final RuleTrace trace) {
+		this(pm, rules, trace, true);
+	}
+
+	/**
+	 * @param compile whether to compose rules into transducers where they can be
+	 */
+	public Cascade(final PhoneManager pm, final List<Rule> rules, final RuleTrace trace, final boolean compile) {
+		this.pm = pm;
+		this.trace = trace;
+		this.rules = rules.toArray(new Rule[0]);
+		this.transducers = new Transducer[this.rules.length];
+		boolean any = false;
+		if (compile) {
+			int i = 0;
+			while (i < this.rules.length) {
+				if (this.rules[i].getUncompilableReason() != null) {
+					i++;
+					continue;
+				}
+				final int start = i;
+				int width = Transducer.width(this.rules[i++]);
+				while (i < this.rules.length && this.rules[i].getUncompilableReason() == null
+						&& width + Transducer.width(this.rules[i]) <= MAX_WINDOW)
+					width += Transducer.width(this.rules[i++]);
+				transducers[start] = new Transducer(pm, rules.subList(start, i));
+				any = true;
+			}
+		}
+		this.compiled = any;
+		this.prefixes = new long[this.rules.length];
+		long prefix = 0xcbf29ce484222325L;
+		for (int i = 0; i < this.rules.length; i++) {
+			prefix = (prefix ^ this.rules[i].getFingerprint()) * 0x100000001b3L;
+			prefixes[i] = prefix;
+		}
+	}
+
+	public Word apply(final Word word) {
+		final RuleCache cache = pm.getRuleCache();
+		final DerivationStore store = pm.getDerivationStore();
+		if (compiled && trace == null && !store.isEnabled())
+			return applyCompiled(word, cache);
+		final boolean capture = trace != null && trace.isCapturingDerivations();
+		final Word[] stages = store.isEnabled() || capture ? new Word[rules.length] : null;
+		int start = 0;
+		if (store.isEnabled() && rules.length > 0)
+			start = store.restore(word, prefixes, stages);
+		if (trace != null)
+			for (int i = 0; i < start; i++)
+				trace.recordCached(rules[i], i == 0 ? word : stages[i - 1], stages[i]);
+		Word result = start == 0 ? word : stages[start - 1];
+		for (int i = start; i < rules.length; i++) {
+			final Word cached = cache.get(rules[i], result);
+			if (cached != null) {
+				if (trace != null)
+					trace.recordCached(rules[i], result, cached);
+				result = cached;
+			} else {
+				final Word next = rules[i].transform(pm, result, trace);
+				cache.put(rules[i], result, next);
+				result = next;
+			}
+			if (stages != null)
+				stages[i] = result;
+		}
+		if (store.isEnabled() && start < rules.length)
+			store.save(word, prefixes, stages);
+		if (capture) {
+			final List<Word> derivation = new ArrayList<>(rules.length + 1);
+			derivation.add(word);
+			derivation.addAll(Arrays.asList(stages));
+			trace.recordDerivation(derivation);
+		}
+		return result;
+	}
+
+	private Word applyCompiled(final Word word, final RuleCache cache) {
+		Word result = word;
+		int i = 0;
+		while (i < rules.length) {
+			if (transducers[i] != null) {
+				result = transducers[i].apply(result);
+				i += transducers[i].size();
+				continue;
+			}
+			final Word cached = cache.get(rules[i], result);
+			if (cached != null) {
+				result = cached;
+			} else {
+				final Word next = rules[i].transform(pm, result);
+				cache.put(rules[i], result, next);
+				result = next;
+			}
+			i++;
+		}
+		return result;
+	}
+
+	/**
+	 * Describes every rule of the cascade that is interpreted rather than
+	 * composed into a transducer, and why.
+	 */
+	public List<String> getUncompiled() {
+		final List<String> report = new ArrayList<>();
+		for (int i = 0; i < rules.length; i++) {
+			final String reason = rules[i].getUncompilableReason();
+			if (reason != null)
+				report.add("Rule " + (i + 1) + " <" + rules[i] + "> is interpreted, " + reason);
+		}
+		return report;
+	}
+
+	public Word[] applyAll(final Word[] words) {
+		final Word[] results = new Word[words.length];
+		if (words.length < 2) {
+			for (int i = 0; i < words.length; i++)
+				results[i] = apply(words[i]);
+		} else {
+			IntStream.range(0, words.length).parallel().forEach(i -> results[i] = apply(words[i]));
+		}
+		return results;
+	}
+
+	public int size() {
+		return rules.length;
+	}
+}
@@ -0,0 +1,100 @@
+package main.phl;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded store of derivations through cascades, keyed by the content of
+ * the input word. Each derivation keeps the word after every rule along with a
+ * fingerprint of the rules up to it, so a cascade whose first rules are
+ * unchanged resumes from the last stage they share. Like the other caches it
+ * is a {@link SegmentedCache} evicting the least recently used input, and a
+ * capacity of 0 disables it.
+ */
+public class DerivationStore {
+	private static final class Derivation {
+		// prefixes[i] fingerprints the rules up to and including rule i, which
+		// produced stages[i]
+		private final long[] prefixes;
+		private final Word[] stages;
+
+		private Derivation(final long[] prefixes, final Word[] stages) {
+			this.prefixes = prefixes;
+			this.stages = stages;
+		}
+	}
+
+	private final SegmentedCache<Word, Derivation> derivations;
+	private final LongAdder reused = new LongAdder();
+	private final LongAdder computed = new LongAdder();
+
+	DerivationStore(final int capacity) {
+		derivations = new SegmentedCache<>(capacity);
+	}
+
+	public boolean isEnabled() {
+		return derivations.isEnabled();
+	}
+
+	/**
+	 * Fills the stages the stored derivation of the word shares with the given
+	 * rule prefixes, returning how many there are.
+	 */
+	int restore(final Word word, final long[] prefixes, final Word[] stages) {
+		final Derivation d = derivations.get(word);
+		int shared = 0;
+		if (d != null) {
+			final int length = Math.min(d.prefixes.length, prefixes.length);
+			while (shared < length && d.prefixes[shared] == prefixes[shared])
+				shared++;
+			System.arraycopy(d.stages, 0, stages, 0, shared);
+		}
+		reused.add(shared);
+		computed.add(prefixes.length - shared);
+		return shared;
+	}
+
+	void save(final Word word, final long[] prefixes, final Word[] stages) {
+		// Words can still be added to, so neither the key nor a stage left
+		// unchanged by its rule may be the caller's word
+		final Word key = word.copy();
+		for (int i = 0; i < stages.length; i++)
+			if (stages[i] == word)
+				stages[i] = key;
+		derivations.put(key, new Derivation(prefixes, stages));
+	}
+
+	/**
+	 * Sets the number of inputs whose derivations are kept. A capacity of 0
+	 * disables the store.
+	 */
+	public void setCapacity(final int capacity) {
+		derivations.setCapacity(capacity);
+	}
+
+	public int getCapacity() {
+		return derivations.getCapacity();
+	}
+
+	public int size() {
+		return derivations.size();
+	}
+
+	public void clear() {
+		derivations.clear();
+	}
+
+	/**
+	 * The number of rule applications skipped by resuming stored derivations.
+	 */
+	public long getReused() {
+		return reused.sum();
+	}
+
+	public long getComputed() {
+		return computed.sum();
+	}
+
+	public long getEvictions() {
+		return derivations.getEvictions();
+	}
+}
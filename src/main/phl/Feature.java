@@ -24,7 +24,7 @@ public class Feature {
 
 	@Override
 	public int hashCode() {
-		return 1;
+		return 31 * key + quality;
 	}
 
 	@Override
@@ -1,10 +1,26 @@
 package main.phl;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Hasher {
-	private static List<String> hashCode = new ArrayList<>();
+	// Ids are assigned in order of first use and never change. Names are only
+	// ever appended and published together with their count, so deHash never
+	// locks.
+	private static final class Names {
+		private final String[] names;
+		private final int count;
+
+		private Names(final String[] names, final int count) {
+			this.names = names;
+			this.count = count;
+		}
+	}
+
+	private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+	private static volatile Names names = new Names(new String[64], 0);
+
 	public static final int ZERO = Hasher.hash("0");
 	public static final int TRUE = Hasher.hash("+");
 	public static final int FALSE = Hasher.hash("-");
@@ -15,14 +31,29 @@ public class Hasher {
 	}
 
 	public static int hash(final String s) {
-		if (!hashCode.contains(s))
-			hashCode.add(s);
-		return hashCode.indexOf(s);
+		final Integer id = ids.get(s);
+		if (id != null)
+			return id;
+		return intern(s);
+	}
+
+	private static synchronized int intern(final String s) {
+		final Integer existing = ids.get(s);
+		if (existing != null)
+			return existing;
+		final Names current = names;
+		final int id = current.count;
+		final String[] grown = id == current.names.length ? Arrays.copyOf(current.names, id * 2) : current.names;
+		grown[id] = s;
+		names = new Names(grown, id + 1);
+		ids.put(s, id);
+		return id;
 	}
 
 	public static String deHash(final int i) {
-		if (i >= hashCode.size())
+		final Names snapshot = names;
+		if (i < 0 || i >= snapshot.count)
 			return "NULL";
-		return hashCode.get(i);
+		return snapshot.names[i];
 	}
-}
\ No newline at end of file
+}
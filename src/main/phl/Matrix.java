@@ -1,118 +1,414 @@
 package main.phl;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
 import java.util.NoSuchElementException;
 
 public class Matrix implements Iterable<Feature> {
+	@FunctionalInterface
+	public interface FeatureVisitor {
+		void visit(int feature, int quality);
+	}
+
 	private final PhoneManager pm;
-	private final int[] rawData;
+
+	// Features are packed by their slot in the PhoneManager's feature table, 64 per
+	// word. A feature is specified when its quality is not ZERO; a specified
+	// feature is TRUE when its value bit is set and FALSE otherwise, unless it is
+	// extended (ANY or an alpha variable), in which case the quality is held in
+	// qualities.
+	private final long[] specified;
+	private final long[] values;
+	private final long[] extended;
+	private int[] qualities;
+	private int size;
 
 	public Matrix(final PhoneManager pm) {
-		this.rawData = new int[pm.getFeatureNames().size()];
 		this.pm = pm;
+		final int words = (pm.getFeatureNames().size() + 63) >>> 6;
+		this.specified = new long[words];
+		this.values = new long[words];
+		this.extended = new long[words];
+		this.qualities = null;
+		this.size = 0;
 	}
 
 	public Matrix(final PhoneManager pm, final Matrix m) {
 		this.pm = pm;
-		this.rawData = new int[pm.getFeatureNames().size()];
-		for (final Feature p : m)
-			put(p.getKey(), p.getQuality());
+		this.specified = m.specified.clone();
+		this.values = m.values.clone();
+		this.extended = m.extended.clone();
+		this.qualities = m.qualities == null ? null : m.qualities.clone();
+		this.size = m.size;
 	}
 
-	public Matrix(final PhoneManager pm, final Feature... entries) {
+	/**
+	 * A matrix of only <code>+</code> and <code>-</code> features, from its packed
+	 * words.
+	 */
+	Matrix(final PhoneManager pm, final long[] specified, final long[] values) {
 		this.pm = pm;
-		this.rawData = new int[pm.getFeatureNames().size()];
+		this.specified = specified.clone();
+		this.values = values.clone();
+		this.extended = new long[specified.length];
+		this.qualities = null;
+		this.size = count();
+	}
+
+	public Matrix(final PhoneManager pm, final Feature... entries) {
+		this(pm);
 		for (final Feature p : entries)
 			put(p.getKey(), p.getQuality());
 	}
 
 	public int getQuality(final int f) {
-		return rawData[pm.getFeatureNames().indexOf(f)];
+		return getQualityAt(pm.getFeatureIndex(f));
+	}
+
+	int getQualityAt(final int slot) {
+		final int w = slot >>> 6;
+		final long bit = 1L << slot;
+		if ((specified[w] & bit) == 0)
+			return Hasher.ZERO;
+		if ((extended[w] & bit) != 0)
+			return qualities[slot];
+		return (values[w] & bit) != 0 ? Hasher.TRUE : Hasher.FALSE;
+	}
+
+	private void setQualityAt(final int slot, final int q) {
+		final int w = slot >>> 6;
+		final long bit = 1L << slot;
+		if ((specified[w] & bit) != 0)
+			size--;
+		specified[w] &= ~bit;
+		values[w] &= ~bit;
+		extended[w] &= ~bit;
+		if (q == Hasher.ZERO)
+			return;
+		specified[w] |= bit;
+		size++;
+		if (q == Hasher.TRUE) {
+			values[w] |= bit;
+		} else if (q != Hasher.FALSE) {
+			if (qualities == null)
+				qualities = new int[specified.length << 6];
+			extended[w] |= bit;
+			qualities[slot] = q;
+		}
 	}
 
 	public void put(final int f, final int q) {
-		rawData[pm.getFeatureNames().indexOf(f)] = q;
+		putAt(pm.getFeatureIndex(f), q);
+	}
+
+	void putAt(final int slot, final int q) {
+		setQualityAt(slot, q);
 
-		if (pm.getMajorClasses().containsKey(f) && (q == Hasher.FALSE || q == Hasher.ANY)) {
-			for (final int fm : pm.getMajorClasses().get(f))
-				put(fm, Hasher.ZERO);
+		final long[] subFeatures = pm.getClassMask(slot);
+		if (subFeatures != null && (q == Hasher.FALSE || q == Hasher.ANY)) {
+			nullify(subFeatures);
 		} else {
-			final int im = pm.inMajorClass(f);
-			if (im != -1 && getQuality(im) == Hasher.ANY) {
-				rawData[pm.getFeatureNames().indexOf(f)] = Hasher.ZERO;
-			}
+			final int major = pm.getMajorSlot(slot);
+			if (major != -1 && getQualityAt(major) == Hasher.ANY)
+				setQualityAt(slot, Hasher.ZERO);
 		}
 	}
 
+	/**
+	 * Sets every feature in the mask to <code>0</code>.
+	 */
+	private void nullify(final long[] mask) {
+		for (int i = 0; i < specified.length; i++) {
+			specified[i] &= ~mask[i];
+			values[i] &= ~mask[i];
+			extended[i] &= ~mask[i];
+		}
+		size = count();
+	}
+
+	/**
+	 * Sets every unspecified feature in the mask to <code>-</code>.
+	 */
+	private void activate(final long[] mask) {
+		for (int i = 0; i < specified.length; i++)
+			specified[i] |= mask[i];
+		size = count();
+	}
+
 	public void putAll(final Matrix m) {
-		for (final Feature p : m) {
-			if ((getQuality(p.getKey()) == Hasher.TRUE && p.getQuality() == Hasher.FALSE)
-					|| (getQuality(p.getKey()) == Hasher.FALSE && p.getQuality() == Hasher.TRUE))
-				put(p.getKey(), Hasher.ANY);
-			else if (getQuality(p.getKey()) == Hasher.ANY || p.getQuality() == Hasher.ANY)
-				put(p.getKey(), Hasher.ANY);
+		for (int slot = m.nextSlot(0); slot != -1; slot = m.nextSlot(slot + 1)) {
+			final int current = getQualityAt(slot);
+			final int q = m.getQualityAt(slot);
+			if ((current == Hasher.TRUE && q == Hasher.FALSE) || (current == Hasher.FALSE && q == Hasher.TRUE))
+				putAt(slot, Hasher.ANY);
+			else if (current == Hasher.ANY || q == Hasher.ANY)
+				putAt(slot, Hasher.ANY);
 			else
-				put(p.getKey(), p.getQuality());
+				putAt(slot, q);
 		}
 	}
 
 	public Matrix transform(final Matrix matrix) {
 		final Matrix newFeatures = new Matrix(pm, this);
 
-		for (final Feature e : matrix) {
-			newFeatures.put(e.getKey(), e.getQuality());
-			final int im = pm.inMajorClass(e.getKey());
-			if (im != -1 && e.getQuality() != Hasher.ZERO) {
-				newFeatures.put(im, Hasher.TRUE);
-				for (final int f : pm.getMajorClasses().get(im))
-					if (newFeatures.getQuality(f) == Hasher.ZERO)
-						newFeatures.put(f, Hasher.FALSE);
-			} else if (pm.getMajorClasses().containsKey(e.getKey()) && e.getQuality() == Hasher.TRUE) {
-				for (final int f : pm.getMajorClasses().get(e.getKey()))
-					if (newFeatures.getQuality(f) == Hasher.ZERO)
-						newFeatures.put(f, Hasher.FALSE);
-			} else if (pm.getMajorClasses().containsKey(e.getKey()) && e.getQuality() == Hasher.FALSE) {
-				for (final int f : pm.getMajorClasses().get(e.getKey()))
-					newFeatures.put(f, Hasher.ZERO);
+		for (int i = 0; i < matrix.specified.length; i++) {
+			long bits = matrix.specified[i];
+			while (bits != 0) {
+				final int slot = (i << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				final int q = matrix.getQualityAt(slot);
+				newFeatures.putAt(slot, q);
+				final int major = pm.getMajorSlot(slot);
+				final long[] subFeatures = pm.getClassMask(slot);
+				if (major != -1) {
+					newFeatures.setQualityAt(major, Hasher.TRUE);
+					newFeatures.activate(pm.getClassMask(major));
+				} else if (subFeatures != null && q == Hasher.TRUE) {
+					newFeatures.activate(subFeatures);
+				} else if (subFeatures != null && q == Hasher.FALSE) {
+					newFeatures.nullify(subFeatures);
+				}
 			}
 		}
 
 		return newFeatures;
 	}
 
-	private List<Feature> getList() {
-		final List<Feature> list = new ArrayList<>();
-		for (final int f : pm.getFeatureNames()) {
-			if (getQuality(f) != Hasher.ZERO)
-				list.add(new Feature(f, getQuality(f)));
+	/**
+	 * Whether this matrix satisfies every feature of the given one, treating
+	 * <code>~</code> in the given matrix as a wildcard.
+	 */
+	boolean hasFeatures(final Matrix map) {
+		return matches(map, true);
+	}
+
+	/**
+	 * Whether this matrix satisfies every feature of the given one outside the
+	 * mask, treating <code>~</code> as a wildcard.
+	 */
+	boolean hasFeaturesOutside(final Matrix map, final long[] ignored) {
+		return matches(map, true, ignored);
+	}
+
+	/**
+	 * Whether this matrix has exactly the quality of every feature of the given
+	 * one.
+	 */
+	boolean matches(final Matrix map) {
+		return matches(map, false);
+	}
+
+	private boolean matches(final Matrix map, final boolean wildcard) {
+		return matches(map, wildcard, null);
+	}
+
+	private boolean matches(final Matrix map, final boolean wildcard, final long[] ignored) {
+		for (int i = 0; i < specified.length; i++) {
+			final long plain = map.specified[i] & ~map.extended[i] & (ignored == null ? -1L : ~ignored[i]);
+			if ((plain & (~specified[i] | extended[i] | (values[i] ^ map.values[i]))) != 0)
+				return false;
+		}
+		if (map.qualities == null)
+			return true;
+		for (int i = 0; i < specified.length; i++) {
+			long bits = map.extended[i] & (ignored == null ? -1L : ~ignored[i]);
+			while (bits != 0) {
+				final int slot = (i << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				final int q = map.qualities[slot];
+				if ((!wildcard || q != Hasher.ANY) && getQualityAt(slot) != q)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Clears every feature whose quality differs from the given matrix, leaving
+	 * only the features both share.
+	 */
+	void retainCommon(final Matrix m) {
+		for (int i = 0; i < specified.length; i++) {
+			final long same = specified[i] & m.specified[i] & ~(values[i] ^ m.values[i])
+					& ~(extended[i] ^ m.extended[i]);
+			specified[i] = same;
+			values[i] &= same;
+			extended[i] &= same;
+			long bits = extended[i];
+			while (bits != 0) {
+				final int slot = (i << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if (qualities[slot] != m.qualities[slot])
+					setQualityAt(slot, Hasher.ZERO);
+			}
+		}
+		size = count();
+	}
+
+	/**
+	 * The specified features of the given matrix whose quality differs from this
+	 * one.
+	 */
+	Matrix contrast(final Matrix m) {
+		final Matrix contrast = new Matrix(pm, m);
+		for (int i = 0; i < specified.length; i++) {
+			final long same = specified[i] & m.specified[i] & ~(values[i] ^ m.values[i])
+					& ~(extended[i] | m.extended[i]);
+			contrast.specified[i] &= ~same;
+			contrast.values[i] &= ~same;
+			long bits = specified[i] & extended[i] & m.extended[i];
+			while (bits != 0) {
+				final int slot = (i << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if (qualities[slot] == m.qualities[slot])
+					contrast.setQualityAt(slot, Hasher.ZERO);
+			}
+		}
+		contrast.size = contrast.count();
+		return contrast;
+	}
+
+	/**
+	 * The number of features whose quality differs between the two matrices.
+	 */
+	int distance(final Matrix m) {
+		int distance = 0;
+		for (int i = 0; i < specified.length; i++) {
+			final long both = specified[i] & m.specified[i];
+			distance += Long.bitCount((specified[i] ^ m.specified[i])
+					| (both & ((values[i] ^ m.values[i]) | (extended[i] ^ m.extended[i]))));
+			long bits = both & extended[i] & m.extended[i];
+			while (bits != 0) {
+				final int slot = (i << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if (qualities[slot] != m.qualities[slot])
+					distance++;
+			}
+		}
+		return distance;
+	}
+
+	/**
+	 * The first slot at or after the given one holding a specified feature, or -1.
+	 */
+	int nextSlot(final int from) {
+		int w = from >>> 6;
+		if (w >= specified.length)
+			return -1;
+		long bits = specified[w] & (-1L << from);
+		while (bits == 0) {
+			if (++w == specified.length)
+				return -1;
+			bits = specified[w];
 		}
-		return list;
+		return (w << 6) + Long.numberOfTrailingZeros(bits);
+	}
+
+	int getFeatureAt(final int slot) {
+		return pm.getFeatureNames().get(slot);
+	}
+
+	/**
+	 * Visits every specified feature and its quality in feature order without
+	 * allocating.
+	 */
+	public void forEach(final FeatureVisitor visitor) {
+		for (int slot = nextSlot(0); slot != -1; slot = nextSlot(slot + 1))
+			visitor.visit(getFeatureAt(slot), getQualityAt(slot));
+	}
+
+	boolean isPlain() {
+		for (final long word : extended)
+			if (word != 0)
+				return false;
+		return true;
+	}
+
+	long getSpecifiedWord(final int i) {
+		return specified[i];
+	}
+
+	long getValueWord(final int i) {
+		return values[i];
+	}
+
+	long getExtendedWord(final int i) {
+		return extended[i];
+	}
+
+	/**
+	 * The features of the matrix that are <code>+</code>, or <code>-</code>,
+	 * outside the mask.
+	 */
+	long[] plainFeatures(final boolean value, final long[] ignored) {
+		final long[] plain = new long[specified.length];
+		for (int i = 0; i < plain.length; i++)
+			plain[i] = specified[i] & ~extended[i] & (value ? values[i] : ~values[i])
+					& (ignored == null ? -1L : ~ignored[i]);
+		return plain;
+	}
+
+	/**
+	 * The mask of the given slots and of every feature in their classes.
+	 */
+	long[] maskOf(final int[] slots) {
+		final long[] mask = new long[specified.length];
+		for (final int slot : slots) {
+			mask[slot >>> 6] |= 1L << slot;
+			final long[] subFeatures = pm.getClassMask(slot);
+			if (subFeatures != null)
+				for (int i = 0; i < mask.length; i++)
+					mask[i] |= subFeatures[i];
+		}
+		return mask;
+	}
+
+	private int count() {
+		int count = 0;
+		for (final long word : specified)
+			count += Long.bitCount(word);
+		return count;
 	}
 
 	public int size() {
-		return getList().size();
+		return size;
 	}
 
 	@Override
 	public String toString() {
-		return getList().toString();
+		final StringBuilder s = new StringBuilder("[");
+		for (int slot = nextSlot(0); slot != -1; slot = nextSlot(slot + 1)) {
+			if (s.length() > 1)
+				s.append(", ");
+			s.append(Hasher.deHash(getQualityAt(slot)) + "|" + Hasher.deHash(getFeatureAt(slot)));
+		}
+		s.append("]");
+		return s.toString();
 	}
 
 	public boolean isEmpty() {
-		return size() == 0;
+		return size == 0;
 	}
 
 	@Override
 	public Iterator<Feature> iterator() {
-		return new MatrixIterator(getList());
+		return new MatrixIterator(this);
 	}
 
 	@Override
 	public int hashCode() {
-		return Arrays.hashCode(rawData);
+		int hash = 1;
+		for (int i = 0; i < specified.length; i++) {
+			hash = 31 * hash + Long.hashCode(specified[i]);
+			hash = 31 * hash + Long.hashCode(values[i]);
+			long bits = extended[i];
+			while (bits != 0) {
+				final int slot = (i << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				hash = 31 * hash + qualities[slot];
+			}
+		}
+		return hash;
 	}
 
 	@Override
@@ -124,32 +420,43 @@ public class Matrix implements Iterable<Feature> {
 		if (o.getClass() != this.getClass())
 			return false;
 		final Matrix m = (Matrix) o;
-		for (final int f : pm.getFeatureNames())
-			if (m.getQuality(f) != getQuality(f))
-				return false;
+		if (!Arrays.equals(specified, m.specified) || !Arrays.equals(values, m.values)
+				|| !Arrays.equals(extended, m.extended))
+			return false;
+		for (int i = 0; i < extended.length; i++) {
+			long bits = extended[i];
+			while (bits != 0) {
+				final int slot = (i << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if (qualities[slot] != m.qualities[slot])
+					return false;
+			}
+		}
 
 		return true;
 	}
 }
 
 class MatrixIterator implements Iterator<Feature> {
-	private final List<Feature> holder;
-	private int i;
+	private final Matrix holder;
+	private int slot;
 
-	MatrixIterator(final List<Feature> holder) {
+	MatrixIterator(final Matrix holder) {
 		this.holder = holder;
-		i = 0;
+		slot = holder.nextSlot(0);
 	}
 
 	@Override
 	public boolean hasNext() {
-		return i < holder.size();
+		return slot != -1;
 	}
 
 	@Override
 	public Feature next() {
-		if (i >= holder.size())
-			throw new NoSuchElementException("Matrix iterator out of bounds: " + i);
-		return holder.get(i++);
+		if (slot == -1)
+			throw new NoSuchElementException("Matrix iterator out of bounds");
+		final Feature feature = new Feature(holder.getFeatureAt(slot), holder.getQualityAt(slot));
+		slot = holder.nextSlot(slot + 1);
+		return feature;
 	}
-}
\ No newline at end of file
+}
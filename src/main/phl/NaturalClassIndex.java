@@ -0,0 +1,73 @@
+package main.phl;
+
+/**
+ * An inverted index from each (feature, quality) pair to the set of phone ids
+ * having it, over the first <code>size</code> phones of a manager. A natural
+ * class is then the intersection of the sets of its features. Phone matrices
+ * never change, so an index is never stale, only short of newer phones. The
+ * index keeps the ids it was built from, so its results resolve against the
+ * same phones whatever has been added since.
+ */
+class NaturalClassIndex {
+	private final Phone[] phones;
+	private final int size;
+	private final int words;
+	// [slot][quality] -> bitset of phone ids, null when no phone has it
+	private final long[][][] bits;
+
+	NaturalClassIndex(final Phone[] phones, final int size, final int slots) {
+		this.phones = phones;
+		this.size = size;
+		this.words = (size + 63) >>> 6;
+		this.bits = new long[slots][0][];
+		for (int id = 0; id < size; id++) {
+			final Matrix m = phones[id].getFeatures();
+			for (int slot = 0; slot < slots; slot++) {
+				final int q = m.getQualityAt(slot);
+				if (q >= bits[slot].length) {
+					final long[][] grown = new long[q + 1][];
+					System.arraycopy(bits[slot], 0, grown, 0, bits[slot].length);
+					bits[slot] = grown;
+				}
+				if (bits[slot][q] == null)
+					bits[slot][q] = new long[words];
+				bits[slot][q][id >>> 6] |= 1L << id;
+			}
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	Phone get(final int id) {
+		return phones[id];
+	}
+
+	/**
+	 * The ids of the indexed phones having every feature of the matrix, treating
+	 * <code>~</code> as a wildcard when asked to.
+	 */
+	long[] query(final Matrix map, final boolean wildcard) {
+		final long[] result = new long[words];
+		for (int i = 0; i < words; i++)
+			result[i] = -1L;
+		if ((size & 63) != 0)
+			result[words - 1] = (1L << size) - 1;
+		for (int slot = map.nextSlot(0); slot != -1; slot = map.nextSlot(slot + 1)) {
+			final int q = map.getQualityAt(slot);
+			if (wildcard && q == Hasher.ANY)
+				continue;
+			final long[] set = q < bits[slot].length ? bits[slot][q] : null;
+			if (set == null)
+				return new long[words];
+			for (int i = 0; i < words; i++)
+				result[i] &= set[i];
+		}
+		return result;
+	}
+
+	static boolean contains(final long[] ids, final int id) {
+		return (ids[id >>> 6] & (1L << id)) != 0;
+	}
+}
@@ -1,31 +1,38 @@
 package main.phl;
 
-import java.util.HashMap;
-import java.util.Map;
-
+/**
+ * A phone of a <code>PhoneManager</code>. Attested phones are interned, so that
+ * there is exactly one instance per attested matrix, and compare by identity.
+ * Unattested phones have no id and compare by their matrix.
+ */
 public class Phone implements Comparable<Phone> {
 	private final PhoneManager pm;
 
-	private final String segment;
+	private final int id;
 	private final Matrix features;
+	private final int hash;
 
-	private final Map<Matrix, Phone> transformationCache;
+	// "*" if the matrix is not attested by the data or registered
+	private final String segment;
 
-	public Phone(final PhoneManager pm, final String segment, final Matrix features, final boolean validate) {
+	Phone(final PhoneManager pm, final int id, final Matrix features, final String segment) {
 		this.pm = pm;
-		this.segment = segment;
+		this.id = id;
 		this.features = features;
-		this.transformationCache = new HashMap<>();
+		this.hash = features.hashCode();
+		this.segment = segment;
+	}
 
-		pm.add(this, validate);
+	public boolean isAttested() {
+		return id >= 0;
 	}
 
-	public boolean hasFeatures(final Matrix map) {
-		for (final Feature e : map)
-			if (getFeatureQuality(e.getKey()) != e.getQuality() && e.getQuality() != Hasher.ANY)
-				return false;
+	public int getId() {
+		return id;
+	}
 
-		return true;
+	public boolean hasFeatures(final Matrix map) {
+		return features.hasFeatures(map);
 	}
 
 	public int getFeatureQuality(final int feature) {
@@ -36,6 +43,10 @@ public class Phone implements Comparable<Phone> {
 		return new Matrix(pm, features);
 	}
 
+	Matrix getFeatures() {
+		return features;
+	}
+
 	private int[] getQualityArray(final PhoneManager pm) {
 		final int[] values = new int[pm.getFeatureNames().size()];
 
@@ -57,43 +68,21 @@ public class Phone implements Comparable<Phone> {
 	}
 
 	public Phone transform(final Matrix matrix, final boolean search) {
-		if (transformationCache.containsKey(matrix))
-			return transformationCache.get(matrix);
-
-		final Matrix newFeatures = getMatrix();
-
-		for (final Feature e : matrix) {
-			newFeatures.put(e.getKey(), e.getQuality());
-			final int im = pm.inMajorClass(e.getKey());
-			if (im != -1 && e.getQuality() != Hasher.ZERO) {
-				newFeatures.put(im, Hasher.TRUE);
-				for (final int f : pm.getMajorClasses().get(im))
-					if (newFeatures.getQuality(f) == Hasher.ZERO)
-						newFeatures.put(f, Hasher.FALSE);
-			} else if (pm.getMajorClasses().containsKey(e.getKey()) && e.getQuality() == Hasher.TRUE) {
-				for (final int f : pm.getMajorClasses().get(e.getKey()))
-					if (newFeatures.getQuality(f) == Hasher.ZERO)
-						newFeatures.put(f, Hasher.FALSE);
-			} else if (pm.getMajorClasses().containsKey(e.getKey()) && e.getQuality() == Hasher.FALSE) {
-				for (final int f : pm.getMajorClasses().get(e.getKey())) {
-					newFeatures.put(f, Hasher.ZERO);
-				}
-			}
-		}
-
-		if (!pm.contains(newFeatures)) {
-			if (search) {
-				final Phone fuzzy = pm.validate(pm.fuzzySearch(newFeatures));
-				if (fuzzy != null)
-					return fuzzy;
-				else
-					return pm.validate(newFeatures);
-			} else {
-				return pm.validate(newFeatures);
-			}
-		}
-		final Phone ret = pm.validate(newFeatures);
-		transformationCache.put(matrix, ret);
+		final TransformationCache cache = pm.getTransformationCache();
+		final Phone cached = cache.get(this, matrix, search);
+		if (cached != null)
+			return cached;
+
+		final Matrix newFeatures = features.transform(matrix);
+		if (pm.isLazy() && !pm.contains(newFeatures))
+			pm.derive(newFeatures);
+
+		Phone ret = null;
+		if (search && !pm.contains(newFeatures))
+			ret = pm.fuzzySearch(newFeatures);
+		if (ret == null)
+			ret = pm.validate(newFeatures);
+		cache.put(this, matrix, search, ret);
 		return ret;
 	}
 
@@ -104,20 +93,17 @@ public class Phone implements Comparable<Phone> {
 
 	@Override
 	public int hashCode() {
-		return segment.hashCode();
+		return hash;
 	}
 
 	@Override
 	public boolean equals(final Object o) {
 		if (o == this)
 			return true;
-		if (o == null)
-			return false;
-		if (o.getClass() != this.getClass())
+		if (!(o instanceof Phone))
 			return false;
 		final Phone p = (Phone) o;
-
-		return p.getMatrix().equals(getMatrix());
+		return (id < 0 || p.id < 0) && p.hash == hash && p.features.equals(features);
 	}
 
 	public String getSegment() {
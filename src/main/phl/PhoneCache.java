@@ -0,0 +1,257 @@
+package main.phl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The binary phone cache kept in <code>~/.sono/cache</code>. It holds the
+ * feature table, every phone matrix packed into its specified and value words,
+ * and a table of segment strings, and is read through a memory map.
+ *
+ * <pre>
+ * int     magic, version
+ * long    CRC32 of the source data file
+ * int     feature count, then per feature: int length, UTF-8 bytes
+ * int     phone count, int words per matrix
+ * long[]  specified words of every phone, then value words of every phone
+ * int[]   segment offsets (phone count + 1)
+ * byte[]  segments, UTF-8
+ * </pre>
+ *
+ * A lazy inventory instead records the variants it derives in
+ * <code>&lt;name&gt;.lazy.bin</code>, which shares the header up to the feature
+ * table and is followed by appended records of an int segment length, the
+ * UTF-8 segment, and the specified and value words of the matrix.
+ */
+class PhoneCache {
+	private static final int MAGIC = 0x534F4E4F;
+	private static final int VARIANTS_MAGIC = 0x534F4E56;
+	// Raised whenever the phones a data file yields change, so stale caches are
+	// regenerated
+	private static final int VERSION = 3;
+
+	private PhoneCache() {
+		throw new IllegalStateException("PhoneCache Utility Class");
+	}
+
+	static File getFile(final String baseFilename) {
+		return getFile(baseFilename, ".bin");
+	}
+
+	static File getVariantsFile(final String baseFilename) {
+		return getFile(baseFilename, ".lazy.bin");
+	}
+
+	private static File getFile(final String baseFilename, final String extension) {
+		final String cacheFilename = baseFilename.replaceFirst(".*[\\\\\\/]", "");
+		return new File(new File(System.getProperty("user.home"), ".sono/cache"), cacheFilename + extension);
+	}
+
+	/**
+	 * The checksum of the data file and of its secondary articulation file if it
+	 * has one, or -1 if the data file cannot be read.
+	 */
+	static long checksum(final File data, final File secondary) {
+		try {
+			final CRC32 crc = new CRC32();
+			crc.update(Files.readAllBytes(data.toPath()));
+			if (secondary.exists())
+				crc.update(Files.readAllBytes(secondary.toPath()));
+			return crc.getValue();
+		} catch (final IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Loads the cache into the manager. Returns <code>false</code>, leaving the
+	 * manager untouched, if the cache is from another version or was built from a
+	 * different data file. The whole cache is checked before the manager is
+	 * touched, so a malformed one also leaves it untouched.
+	 */
+	static boolean read(final PhoneManager pm, final File file, final long checksum) throws IOException {
+		final MappedByteBuffer buffer = map(file);
+		final String[] names = readHeader(buffer, MAGIC, checksum);
+		if (names == null)
+			return false;
+		final int count = buffer.getInt();
+		final int words = buffer.getInt();
+		if (words != (names.length + 63) >>> 6)
+			throw new IOException("Malformed phone cache <" + file + ">");
+
+		final LongBuffer matrices = buffer.slice().asLongBuffer();
+		buffer.position(buffer.position() + count * words * 16);
+		final int[] offsets = new int[count + 1];
+		buffer.asIntBuffer().get(offsets);
+		buffer.position(buffer.position() + offsets.length * 4);
+		if (buffer.remaining() != offsets[count] || offsets[0] != 0)
+			throw new IOException("Malformed phone cache <" + file + ">");
+		for (int i = 0; i < count; i++)
+			if (offsets[i] > offsets[i + 1])
+				throw new IOException("Malformed phone cache <" + file + ">");
+		final ByteBuffer segments = buffer.slice();
+
+		pm.setFeatures(names);
+		final long[] specified = new long[words];
+		final long[] values = new long[words];
+		for (int i = 0; i < count; i++) {
+			matrices.get(i * words, specified);
+			matrices.get((count + i) * words, values);
+			segments.position(offsets[i]);
+			pm.addPhone(readString(segments, offsets[i + 1] - offsets[i]), new Matrix(pm, specified, values));
+		}
+		return true;
+	}
+
+	/**
+	 * Loads the variants recorded by a lazy inventory into a manager already
+	 * holding the features of the data file. Returns <code>false</code> if the
+	 * file belongs to another data file. A record cut short by an interrupted
+	 * append is ignored.
+	 */
+	static boolean readVariants(final PhoneManager pm, final File file, final long checksum) throws IOException {
+		final MappedByteBuffer buffer = map(file);
+		final String[] names = readHeader(buffer, VARIANTS_MAGIC, checksum);
+		if (names == null || names.length != pm.getFeatureNames().size())
+			return false;
+		for (int i = 0; i < names.length; i++)
+			if (!names[i].equals(Hasher.deHash(pm.getFeatureNames().get(i))))
+				return false;
+
+		final int words = (names.length + 63) >>> 6;
+		final long[] specified = new long[words];
+		final long[] values = new long[words];
+		while (buffer.remaining() >= 4) {
+			final int length = buffer.getInt();
+			if (length < 0 || buffer.remaining() < length + words * 16)
+				break;
+			final String segment = readString(buffer, length);
+			buffer.asLongBuffer().get(specified);
+			buffer.position(buffer.position() + words * 8);
+			buffer.asLongBuffer().get(values);
+			buffer.position(buffer.position() + words * 8);
+			pm.addPhone(segment, new Matrix(pm, specified, values));
+		}
+		return true;
+	}
+
+	/**
+	 * Starts an empty record of lazily derived variants.
+	 */
+	static void startVariants(final PhoneManager pm, final File file, final long checksum) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			writeHeader(out, VARIANTS_MAGIC, pm, checksum);
+		}
+	}
+
+	static void appendVariants(final PhoneManager pm, final File file, final List<Phone> phones)
+			throws IOException {
+		final int words = (pm.getFeatureNames().size() + 63) >>> 6;
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file, true)))) {
+			for (final Phone p : phones) {
+				if (!p.getFeatures().isPlain())
+					continue;
+				final byte[] segment = p.getSegment().getBytes(StandardCharsets.UTF_8);
+				out.writeInt(segment.length);
+				out.write(segment);
+				for (int i = 0; i < words; i++)
+					out.writeLong(p.getFeatures().getSpecifiedWord(i));
+				for (int i = 0; i < words; i++)
+					out.writeLong(p.getFeatures().getValueWord(i));
+			}
+		}
+	}
+
+	private static MappedByteBuffer map(final File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Reads the header up to the feature table, returning the feature names, or
+	 * <code>null</code> if the file is of another kind or version or was built from
+	 * a different data file.
+	 */
+	private static String[] readHeader(final ByteBuffer buffer, final int magic, final long checksum) {
+		if (buffer.remaining() < 20 || buffer.getInt() != magic || buffer.getInt() != VERSION)
+			return null;
+		final long source = buffer.getLong();
+		if (checksum != -1 && source != checksum)
+			return null;
+
+		final String[] names = new String[buffer.getInt()];
+		for (int i = 0; i < names.length; i++)
+			names[i] = readString(buffer, buffer.getInt());
+		return names;
+	}
+
+	private static void writeHeader(final DataOutputStream out, final int magic, final PhoneManager pm,
+			final long checksum) throws IOException {
+		out.writeInt(magic);
+		out.writeInt(VERSION);
+		out.writeLong(checksum);
+		out.writeInt(pm.getFeatureNames().size());
+		for (final int f : pm.getFeatureNames()) {
+			final byte[] name = Hasher.deHash(f).getBytes(StandardCharsets.UTF_8);
+			out.writeInt(name.length);
+			out.write(name);
+		}
+	}
+
+	private static String readString(final ByteBuffer buffer, final int length) {
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static void write(final PhoneManager pm, final List<Phone> phones, final File file, final long checksum)
+			throws IOException {
+		final int words = (pm.getFeatureNames().size() + 63) >>> 6;
+		final byte[][] segments = new byte[phones.size()][];
+		for (int i = 0; i < segments.length; i++)
+			segments[i] = phones.get(i).getSegment().getBytes(StandardCharsets.UTF_8);
+
+		final File temp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			writeHeader(out, MAGIC, pm, checksum);
+			out.writeInt(phones.size());
+			out.writeInt(words);
+			for (final Phone p : phones) {
+				if (!p.getFeatures().isPlain())
+					throw new IOException("Phone <" + p + "> cannot be cached, its qualities are not binary");
+				for (int i = 0; i < words; i++)
+					out.writeLong(p.getFeatures().getSpecifiedWord(i));
+			}
+			for (final Phone p : phones)
+				for (int i = 0; i < words; i++)
+					out.writeLong(p.getFeatures().getValueWord(i));
+			int offset = 0;
+			out.writeInt(offset);
+			for (final byte[] segment : segments) {
+				offset += segment.length;
+				out.writeInt(offset);
+			}
+			for (final byte[] segment : segments)
+				out.write(segment);
+		} catch (final IOException e) {
+			Files.deleteIfExists(temp.toPath());
+			throw e;
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
@@ -1,49 +1,55 @@
 package main.phl;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.EnumMap;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class PhoneLoader {
-	public enum Secondary {
-		VOCALIC, RETRACTED, ADVANCED, PALATOALVEOLAR, DENTAL, DEVOICING, NASALIZATION, LABIALIZATION, PALATALIZATION,
-		VELARIZATION, PHARYNGEALIZATION, ASPIRATION, LENGTH
-	}
+	// Read from the class path when there is no secondary articulation file next
+	// to the data file
+	private static final String DEFAULT_SECONDARY = "default.secondary.tsv";
 
-	private final Map<Secondary, SecondaryArticulation> secondaryLibrary = new EnumMap<>(Secondary.class);
+	// Secondary articulations in declaration order, which is the order variants
+	// apply them in, and a table of them by diacritic from firstDiacritic on
+	private final List<SecondaryArticulation> secondaries = new ArrayList<>();
+	private SecondaryArticulation[] diacritics = new SecondaryArticulation[0];
+	private char firstDiacritic = 0;
 
 	private final PhoneManager pm;
 	private final Map<Matrix, ArrayList<String>> loadedPhones;
 
-	private void readFile(final PhoneManager pm, final String directory, final String filename, final String del,
-			final boolean cached) throws IOException {
+	// Lazy inventories load only the base phones and derive the variants of a
+	// base the first time something may need them
+	private final boolean lazy;
+	private final Set<Phone> expanded = ConcurrentHashMap.newKeySet();
+	private long[] variableSlots = null;
+	private File variantsFile = null;
+
+	private void readFile(final PhoneManager pm, final String directory, final String filename, final String del)
+			throws IOException {
 		final File file = new File(directory, filename);
 		try (BufferedReader br = new BufferedReader(new FileReader(file))) {
 			String line;
-			String major = null;
 			while ((line = br.readLine()) != null) {
 				final String[] split = line.split(del);
 				final String segment = split[0];
 				if (segment.equals("SEGMENT")) {
-					for (int i = 1; i < split.length; i++) {
-						if (Character.isUpperCase(split[i].charAt(0))) {
-							pm.getMajorClasses().put(Hasher.hash(split[i]), new ArrayList<>());
-							major = split[i];
-						}
-						pm.getFeatureNames().add(Hasher.hash(split[i]));
-						if (major != null && !major.equals(split[i])) {
-							pm.getMajorClasses().get(Hasher.hash(major)).add(Hasher.hash(split[i]));
-						}
-					}
+					pm.setFeatures(Arrays.copyOfRange(split, 1, split.length));
 					continue;
 				}
 				final Matrix features = new Matrix(pm);
@@ -53,233 +59,342 @@ public class PhoneLoader {
 					i++;
 				}
 
-				if (!cached) {
-					if (!loadedPhones.containsKey(features))
-						loadedPhones.put(features, new ArrayList<>());
-					loadedPhones.get(features).add(segment);
-				} else {
-					new Phone(pm, segment, features, false);
-				}
+				if (!loadedPhones.containsKey(features))
+					loadedPhones.put(features, new ArrayList<>());
+				loadedPhones.get(features).add(segment);
 			}
 		}
 	}
 
 	private void initCache(final String baseFilename) throws IOException {
-		final String cacheFilename = baseFilename.replaceFirst(".*[\\\\\\/]", "");
 		System.out.println("Cache not initialized...");
 		try {
 			System.out.println("Reading file <" + baseFilename + ">...");
-			readFile(pm, null, baseFilename, "\t", false);
-			setSecondary();
+			readFile(pm, null, baseFilename, "\t");
+			setSecondary(baseFilename);
 
 			System.out.println("Generating variants...");
 
-			final Map<Matrix, ArrayList<String>> base = new HashMap<>();
-			base.putAll(loadedPhones);
+			final List<Map.Entry<Matrix, ArrayList<String>>> base = new ArrayList<>(loadedPhones.entrySet());
+			final List<ForkJoinTask<Map<Matrix, List<String>>>> tasks = new ArrayList<>();
+			for (final Map.Entry<Matrix, ArrayList<String>> e : base) {
+				final String segment = e.getValue().get(0);
+				final Matrix matrix = e.getKey();
+				tasks.add(ForkJoinPool.commonPool().submit(() -> {
+					final Map<Matrix, List<String>> variants = new LinkedHashMap<>();
+					generateVariants(segment, matrix, 0, 0, variants);
+					return variants;
+				}));
+			}
 
-			for (final Map.Entry<Matrix, ArrayList<String>> e : base.entrySet()) {
-				System.out.println("\tGenerating Variants of <" + e.getValue().get(0) + ">");
-				recursiveApply(e.getValue().get(0), e.getKey(), new ArrayList<>(),
-						new ArrayList<>(List.of(Secondary.values())));
+			// merged in data file order so that the choice among equally short
+			// segments does not depend on scheduling
+			for (int i = 0; i < base.size(); i++) {
+				System.out.println("\tGenerating Variants of <" + base.get(i).getValue().get(0) + ">");
+				for (final Map.Entry<Matrix, List<String>> e : tasks.get(i).join().entrySet())
+					loadedPhones.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).addAll(e.getValue());
 			}
 
 			final List<Phone> phones = new ArrayList<>();
 
-			for (final Map.Entry<Matrix, ArrayList<String>> e : loadedPhones.entrySet()) {
-				String shortest = e.getValue().get(0);
-				for (final String s : e.getValue())
-					if (s.length() <= shortest.length())
-						shortest = s;
-				phones.add(new Phone(pm, shortest, e.getKey(), false));
-			}
+			for (final Map.Entry<Matrix, ArrayList<String>> e : loadedPhones.entrySet())
+				phones.add(pm.addPhone(shortest(e.getValue()), e.getKey()));
 
-			final File directory = new File(System.getProperty("user.home"), ".sono/cache");
-			if (!directory.exists())
-				directory.mkdir();
-
-			System.out.println("Saving cache (" + loadedPhones.size() + ") to " + directory.getAbsolutePath() + "/"
-					+ cacheFilename + ".data...");
-
-			try (BufferedWriter bw = new BufferedWriter(
-					new FileWriter(new File(directory, cacheFilename + ".data")));) {
-				bw.write("SEGMENT");
-				for (final int i : pm.getFeatureNames())
-					bw.write("\t" + Hasher.deHash(i));
-				bw.write("\n");
-				for (final Phone p : phones)
-					bw.write(p.getDataString("\t") + "\n");
-			}
+			final File cache = PhoneCache.getFile(baseFilename);
+			if (!cache.getParentFile().exists())
+				cache.getParentFile().mkdir();
+
+			System.out.println("Saving cache (" + loadedPhones.size() + ") to " + cache.getAbsolutePath() + "...");
+
+			PhoneCache.write(pm, phones, cache, checksum(baseFilename));
 		} catch (final Exception e2) {
 			e2.printStackTrace();
 			throw new IOException("File <" + baseFilename + "> not in directory, cannot load base phones");
 		}
 	}
 
-	private void setSecondary() {
-		secondaryLibrary.put(Secondary.VOCALIC,
-				new SecondaryArticulation(pm, "̩", Hasher.hash("syl"), Hasher.TRUE, Collections.emptyList(),
-						List.of(new Matrix(pm, new Feature(Hasher.hash("cons"), Hasher.TRUE),
-								new Feature(Hasher.hash("son"), Hasher.TRUE),
-								new Feature(Hasher.hash("syl"), Hasher.FALSE)))));
-		secondaryLibrary.put(Secondary.RETRACTED,
-				new SecondaryArticulation("̠",
-						new Matrix(pm, new Feature(Hasher.hash("front"), Hasher.FALSE),
-								new Feature(Hasher.hash("back"), Hasher.TRUE)),
-						List.of(Secondary.ADVANCED),
-						List.of(new Matrix(pm, new Feature(Hasher.hash("COR"), Hasher.TRUE)))));
-		secondaryLibrary.put(Secondary.ADVANCED,
-				new SecondaryArticulation("̟",
-						new Matrix(pm, new Feature(Hasher.hash("front"), Hasher.TRUE),
-								new Feature(Hasher.hash("back"), Hasher.FALSE)),
-						List.of(Secondary.RETRACTED),
-						List.of(new Matrix(pm, new Feature(Hasher.hash("COR"), Hasher.TRUE)))));
-		secondaryLibrary.put(Secondary.DENTAL,
-				new SecondaryArticulation("̪",
-						new Matrix(pm, new Feature(Hasher.hash("ant"), Hasher.TRUE),
-								new Feature(Hasher.hash("dist"), Hasher.TRUE)),
-						List.of(Secondary.PALATOALVEOLAR),
-						List.of(new Matrix(pm, new Feature(Hasher.hash("COR"), Hasher.TRUE)))));
-		secondaryLibrary.put(Secondary.PALATOALVEOLAR,
-				new SecondaryArticulation("̺",
-						new Matrix(pm, new Feature(Hasher.hash("ant"), Hasher.FALSE),
-								new Feature(Hasher.hash("dist"), Hasher.TRUE)),
-						List.of(Secondary.DENTAL),
-						List.of(new Matrix(pm, new Feature(Hasher.hash("COR"), Hasher.TRUE)))));
-		secondaryLibrary.put(Secondary.DEVOICING, new SecondaryArticulation(pm, "̥", Hasher.hash("voice"), Hasher.FALSE,
-				Collections.emptyList(), List.of(new Matrix(pm, new Feature(Hasher.hash("voice"), Hasher.TRUE)))));
-		secondaryLibrary.put(Secondary.NASALIZATION,
-				new SecondaryArticulation(pm, "̃", Hasher.hash("nasal"), Hasher.TRUE, Collections.emptyList(),
-						List.of(new Matrix(pm, new Feature(Hasher.hash("son"), Hasher.TRUE),
-								new Feature(Hasher.hash("nasal"), Hasher.FALSE)))));
-		secondaryLibrary
-				.put(Secondary.LABIALIZATION,
-						new SecondaryArticulation("ʷ",
-								new Matrix(pm, new Feature(Hasher.hash("LAB"),
-										Hasher.TRUE), new Feature(Hasher.hash("round"), Hasher.TRUE)),
-								Collections.emptyList(),
-								List.of(new Matrix(pm, new Feature(Hasher.hash("cons"), Hasher.TRUE),
-										new Feature(Hasher.hash("syl"), Hasher.FALSE)),
-										new Matrix(pm, new Feature(Hasher.hash("cons"), Hasher.FALSE),
-												new Feature(Hasher.hash("syl"), Hasher.FALSE)))));
-		secondaryLibrary.put(Secondary.PALATALIZATION,
-				new SecondaryArticulation("ʲ", new Matrix(pm, new Feature(Hasher.hash("DOR"), Hasher.TRUE),
-						new Feature(Hasher.hash("high"), Hasher.TRUE), new Feature(Hasher.hash("low"), Hasher.FALSE),
-						new Feature(Hasher.hash("front"), Hasher.TRUE), new Feature(Hasher.hash("back"), Hasher.FALSE)),
-						List.of(Secondary.VELARIZATION, Secondary.PHARYNGEALIZATION),
-						List.of(new Matrix(pm, new Feature(Hasher.hash("cons"), Hasher.TRUE),
-								new Feature(Hasher.hash("syl"), Hasher.FALSE),
-								new Feature(Hasher.hash("back"), Hasher.FALSE)),
-								new Matrix(pm, new Feature(Hasher.hash("cons"), Hasher.FALSE),
-										new Feature(Hasher.hash("syl"), Hasher.FALSE),
-										new Feature(Hasher.hash("back"), Hasher.FALSE)),
-								new Matrix(pm, new Feature(Hasher.hash("cons"), Hasher.TRUE),
-										new Feature(Hasher.hash("syl"), Hasher.FALSE),
-										new Feature(Hasher.hash("back"), Hasher.ZERO)),
-								new Matrix(pm, new Feature(Hasher.hash("cons"), Hasher.FALSE),
-										new Feature(Hasher.hash("syl"), Hasher.FALSE),
-										new Feature(Hasher.hash("back"), Hasher.ZERO)))));
-		secondaryLibrary.put(Secondary.VELARIZATION,
-				new SecondaryArticulation("ˠ", new Matrix(pm, new Feature(Hasher.hash("DOR"), Hasher.TRUE),
-						new Feature(Hasher.hash("high"), Hasher.TRUE), new Feature(Hasher.hash("low"), Hasher.FALSE),
-						new Feature(Hasher.hash("front"), Hasher.FALSE), new Feature(Hasher.hash("back"), Hasher.TRUE)),
-						List.of(Secondary.PALATALIZATION, Secondary.PHARYNGEALIZATION),
-						List.of(new Matrix(pm, new Feature(Hasher.hash("cons"), Hasher.TRUE),
-								new Feature(Hasher.hash("syl"), Hasher.FALSE),
-								new Feature(Hasher.hash("back"), Hasher.FALSE)),
-								new Matrix(pm, new Feature(Hasher.hash("cons"), Hasher.FALSE),
-										new Feature(Hasher.hash("syl"), Hasher.FALSE),
-										new Feature(Hasher.hash("back"), Hasher.FALSE)),
-								new Matrix(pm, new Feature(Hasher.hash("cons"), Hasher.TRUE),
-										new Feature(Hasher.hash("syl"), Hasher.FALSE),
-										new Feature(Hasher.hash("back"), Hasher.ZERO)),
-								new Matrix(pm, new Feature(Hasher.hash("cons"), Hasher.FALSE),
-										new Feature(Hasher.hash("syl"), Hasher.FALSE),
-										new Feature(Hasher.hash("back"), Hasher.ZERO)))));
-		secondaryLibrary.put(Secondary.PHARYNGEALIZATION,
-				new SecondaryArticulation("ˤ", new Matrix(pm, new Feature(Hasher.hash("DOR"), Hasher.TRUE),
-						new Feature(Hasher.hash("high"), Hasher.FALSE), new Feature(Hasher.hash("low"), Hasher.TRUE),
-						new Feature(Hasher.hash("front"), Hasher.FALSE), new Feature(Hasher.hash("back"), Hasher.TRUE)),
-						List.of(Secondary.VELARIZATION, Secondary.PALATALIZATION),
-						List.of(new Matrix(pm, new Feature(Hasher.hash("cons"), Hasher.TRUE),
-								new Feature(Hasher.hash("syl"), Hasher.FALSE)),
-								new Matrix(pm, new Feature(Hasher.hash("cons"), Hasher.FALSE),
-										new Feature(Hasher.hash("syl"), Hasher.FALSE)))));
-		secondaryLibrary.put(Secondary.ASPIRATION,
-				new SecondaryArticulation("ʰ", new Matrix(
-						pm, new Feature(Hasher.hash("sg"), Hasher.TRUE), new Feature(Hasher.hash("cg"), Hasher.FALSE)),
-						Collections.emptyList(),
-						List.of(new Matrix(pm, new Feature(Hasher.hash("cons"), Hasher.TRUE),
-								new Feature(Hasher.hash("syl"), Hasher.FALSE)),
-								new Matrix(pm, new Feature(Hasher.hash("cons"), Hasher.FALSE),
-										new Feature(Hasher.hash("syl"), Hasher.FALSE)))));
-		secondaryLibrary.put(Secondary.LENGTH, new SecondaryArticulation(pm, "ː", Hasher.hash("long"), Hasher.TRUE,
-				Collections.emptyList(), List.of(new Matrix(pm, new Feature(Hasher.hash("long"), Hasher.FALSE)))));
+	/**
+	 * The secondary articulation file of a data file: <code>name.tsv</code> has
+	 * <code>name.secondary.tsv</code>.
+	 */
+	static File getSecondaryFile(final String baseFilename) {
+		if (baseFilename.endsWith(".tsv"))
+			return new File(baseFilename.substring(0, baseFilename.length() - 4) + ".secondary.tsv");
+		return new File(baseFilename + ".secondary");
+	}
+
+	private static long checksum(final String baseFilename) {
+		return PhoneCache.checksum(new File(baseFilename), getSecondaryFile(baseFilename));
+	}
+
+	/**
+	 * Loads the secondary articulations of the data file, one per line after the
+	 * header: name, diacritic, features, names of the articulations it excludes,
+	 * and the matrices of which the phone must match one, separated by
+	 * <code>;</code>. Features are written <code>quality|feature</code> and
+	 * separated by <code>,</code>.
+	 */
+	private void setSecondary(final String baseFilename) throws IOException {
+		final File file = getSecondaryFile(baseFilename);
+		final List<String> lines = file.exists() ? Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)
+				: readDefaultSecondary();
+
+		for (final String line : lines) {
+			if (line.isEmpty() || line.startsWith("NAME\t"))
+				continue;
+			final String[] split = line.split("\t", -1);
+			if (split.length != 5 || split[1].length() != 1)
+				throw new IOException("Malformed secondary articulation <" + line + ">");
+			final List<Matrix> requirements = new ArrayList<>();
+			for (final String m : split[4].split(";"))
+				if (!m.isEmpty())
+					requirements.add(parseMatrix(m, split[0]));
+			final List<String> restrictions = split[3].isEmpty() ? Collections.emptyList()
+					: Arrays.asList(split[3].split(","));
+			secondaries.add(new SecondaryArticulation(split[0], split[1], parseMatrix(split[2], split[0]),
+					restrictions, requirements));
+		}
+		if (secondaries.size() > 64)
+			throw new IOException("Too many secondary articulations, at most 64 are supported");
+
+		char first = Character.MAX_VALUE;
+		char last = 0;
+		for (final SecondaryArticulation sa : secondaries) {
+			long mask = 0;
+			for (final String r : sa.getRestrictions()) {
+				final int index = indexOfSecondary(r);
+				if (index == -1)
+					throw new IOException("Unknown secondary articulation <" + r + "> in <" + sa.getName() + ">");
+				mask |= 1L << index;
+			}
+			sa.setRestrictionMask(mask);
+			first = (char) Math.min(first, sa.getSegment().charAt(0));
+			last = (char) Math.max(last, sa.getSegment().charAt(0));
+		}
+		if (!secondaries.isEmpty()) {
+			firstDiacritic = first;
+			diacritics = new SecondaryArticulation[last - first + 1];
+			for (final SecondaryArticulation sa : secondaries)
+				if (diacritics[sa.getSegment().charAt(0) - first] == null)
+					diacritics[sa.getSegment().charAt(0) - first] = sa;
+		}
+	}
+
+	private static List<String> readDefaultSecondary() throws IOException {
+		final InputStream in = PhoneLoader.class.getResourceAsStream(DEFAULT_SECONDARY);
+		if (in == null)
+			throw new IOException("Default secondary articulations <" + DEFAULT_SECONDARY + "> not found");
+		final List<String> lines = new ArrayList<>();
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = br.readLine()) != null)
+				lines.add(line);
+		}
+		return lines;
+	}
+
+	private int indexOfSecondary(final String name) {
+		for (int i = 0; i < secondaries.size(); i++)
+			if (secondaries.get(i).getName().equals(name))
+				return i;
+		return -1;
+	}
+
+	private Matrix parseMatrix(final String s, final String name) throws IOException {
+		final List<Feature> features = new ArrayList<>();
+		for (final String f : s.split(",")) {
+			final String[] split = f.split("\\|");
+			if (split.length != 2 || pm.getFeatureIndex(Hasher.hash(split[1])) == -1)
+				throw new IOException("Unknown feature <" + f + "> in secondary articulation <" + name + ">");
+			features.add(new Feature(Hasher.hash(split[1]), Hasher.hash(split[0])));
+		}
+		return new Matrix(pm, features.toArray(new Feature[0]));
+	}
+
+	/**
+	 * The shortest of the segments, the first listed among equally short ones so
+	 * that the phone declared first in the data file names a shared matrix.
+	 */
+	private static String shortest(final List<String> segments) {
+		String shortest = segments.get(0);
+		for (final String s : segments)
+			if (s.length() < shortest.length())
+				shortest = s;
+		return shortest;
+	}
+
+	private void initLazy(final String baseFilename, final boolean force) throws IOException {
+		readFile(pm, null, baseFilename, "\t");
+		setSecondary(baseFilename);
+		for (final Map.Entry<Matrix, ArrayList<String>> e : loadedPhones.entrySet())
+			pm.addPhone(shortest(e.getValue()), e.getKey());
+
+		final int words = (pm.getFeatureNames().size() + 63) >>> 6;
+		variableSlots = new long[words];
+		for (final SecondaryArticulation sa : secondaries) {
+			final Matrix m = sa.getMatrix();
+			for (int slot = m.nextSlot(0); slot != -1; slot = m.nextSlot(slot + 1)) {
+				variableSlots[slot >>> 6] |= 1L << slot;
+				addMask(pm.getClassMask(slot));
+				final int major = pm.getMajorSlot(slot);
+				if (major != -1) {
+					variableSlots[major >>> 6] |= 1L << major;
+					addMask(pm.getClassMask(major));
+				}
+			}
+		}
+
+		final long checksum = checksum(baseFilename);
+		variantsFile = PhoneCache.getVariantsFile(baseFilename);
+		boolean loaded = false;
+		try {
+			loaded = !force && variantsFile.exists() && PhoneCache.readVariants(pm, variantsFile, checksum);
+		} catch (final IOException e) {
+			loaded = false;
+		}
+		if (!loaded) {
+			if (!variantsFile.getParentFile().exists())
+				variantsFile.getParentFile().mkdir();
+			PhoneCache.startVariants(pm, variantsFile, checksum);
+		}
+	}
+
+	private void addMask(final long[] mask) {
+		if (mask != null)
+			for (int i = 0; i < mask.length; i++)
+				variableSlots[i] |= mask[i];
 	}
 
 	public PhoneLoader(final String baseFilename, final boolean force) throws IOException {
-		loadedPhones = new HashMap<>();
+		this(baseFilename, force, false);
+	}
+
+	public PhoneLoader(final String baseFilename, final boolean force, final boolean lazy) throws IOException {
+		loadedPhones = new LinkedHashMap<>();
+		this.lazy = lazy;
 		this.pm = new PhoneManager(this);
-		if (force)
+		if (lazy)
+			initLazy(baseFilename, force);
+		else if (force)
 			initCache(baseFilename);
 		else {
-			final String cacheFilename = baseFilename.replaceFirst(".*[\\\\\\/]", "");
-			final File directory = new File(System.getProperty("user.home"), ".sono/cache");
-			// System.out.println("Loading Cache for <" + baseFilename + ">...");
+			final File cache = PhoneCache.getFile(baseFilename);
+			boolean read = false;
 			try {
-				readFile(pm, directory.getAbsolutePath(), cacheFilename + ".data", "\t", true);
-				setSecondary();
-				/*
-				 * System.out.println("Setting Phones..."); for (final Map.Entry<Matrix,
-				 * ArrayList<String>> e : loadedPhones.entrySet()) new Phone(pm,
-				 * e.getValue().get(0), e.getKey(), false);
-				 */
-			} catch (final Exception e) {
-				System.out.println("Cache not found <" + directory.getAbsolutePath() + "\\" + cacheFilename
-						+ ".data> generating new cache");
-				initCache(baseFilename);
+				read = PhoneCache.read(pm, cache, checksum(baseFilename));
+				if (!read)
+					System.out.println("Cache <" + cache.getAbsolutePath() + "> is out of date, generating new cache");
+			} catch (final IOException | RuntimeException e) {
+				// the manager is untouched unless the whole cache was read
+				System.out.println("Cache not found <" + cache.getAbsolutePath() + "> generating new cache");
 			}
+			// a bad secondary articulation file is reported as such rather than
+			// loaded over the cached phones
+			if (read)
+				setSecondary(baseFilename);
+			else
+				initCache(baseFilename);
 		}
 	}
 
-	private void recursiveApply(final String segment, final Matrix m, final ArrayList<Secondary> applied,
-			final ArrayList<Secondary> list) {
-		if (list.isEmpty())
-			return;
-
-		for (int i = 0; i < list.size(); i++) {
-			if (!secondaryLibrary.get(list.get(i)).canApply(m, applied))
+	/**
+	 * Collects every variant of the phone reachable by applying secondary
+	 * articulations in declaration order, starting from the given one. Applied
+	 * articulations are a bitmask of their positions.
+	 */
+	private void generateVariants(final String segment, final Matrix m, final long applied, final int start,
+			final Map<Matrix, List<String>> variants) {
+		for (int i = start; i < secondaries.size(); i++) {
+			final SecondaryArticulation sa = secondaries.get(i);
+			if (!sa.canApply(m, applied))
 				continue;
 
-			final Matrix newMatrix = m.transform(secondaryLibrary.get(list.get(i)).getMatrix());
-			final String newSegment = segment + secondaryLibrary.get(list.get(i)).getSegment();
+			final Matrix newMatrix = m.transform(sa.getMatrix());
+			final String newSegment = segment + sa.getSegment();
+			variants.computeIfAbsent(newMatrix, k -> new ArrayList<>()).add(newSegment);
 
-			if (!loadedPhones.containsKey(newMatrix))
-				loadedPhones.put(newMatrix, new ArrayList<>());
-			loadedPhones.get(newMatrix).add(newSegment);
+			generateVariants(newSegment, newMatrix, applied | (1L << i), i + 1, variants);
+		}
+	}
 
-			final ArrayList<Secondary> newList = new ArrayList<>();
-			newList.addAll(list);
-			for (int j = 0; j <= i; j++)
-				newList.remove(0);
+	public boolean isLazy() {
+		return lazy;
+	}
 
-			final ArrayList<Secondary> newListA = new ArrayList<>();
-			newListA.addAll(applied);
-			newListA.add(list.get(i));
+	/**
+	 * Derives and registers every variant of the base phone, recording the new
+	 * ones in the variants cache. Does nothing unless the inventory is lazy or if
+	 * the base has already been expanded. Returns whether any phone was added.
+	 * <p>
+	 * Bases agreeing outside the features a secondary articulation can change
+	 * may share variants, so they are expanded together in data file order and a
+	 * shared variant is named as a full load would name it, whichever base was
+	 * asked for first.
+	 */
+	synchronized boolean expand(final Phone base) {
+		if (!lazy || expanded.contains(base))
+			return false;
 
-			recursiveApply(newSegment, newMatrix, newListA, newList);
+		final Matrix features = base.getFeatures();
+		final Map<Matrix, List<String>> variants = new LinkedHashMap<>();
+		final List<Phone> bases = pm.getBasePhones();
+		for (int i = 0; i < bases.size(); i++) {
+			final Phone b = bases.get(i);
+			final Matrix m = b.getFeatures();
+			if (b == base || m.hasFeaturesOutside(features, variableSlots)
+					&& features.hasFeaturesOutside(m, variableSlots)) {
+				expanded.add(b);
+				generateVariants(b.getSegment(), m, 0, 0, variants);
+			}
 		}
+		final List<Phone> added = new ArrayList<>();
+		for (final Map.Entry<Matrix, List<String>> e : variants.entrySet()) {
+			final Phone p = pm.addVariant(shortest(e.getValue()), e.getKey());
+			if (p != null)
+				added.add(p);
+		}
+
+		if (!added.isEmpty()) {
+			try {
+				PhoneCache.appendVariants(pm, variantsFile, added);
+			} catch (final IOException e) {
+				System.err.println("Cannot record variants in <" + variantsFile + ">: " + e.getMessage());
+			}
+		}
+		return !added.isEmpty();
 	}
 
-	public Map<Secondary, SecondaryArticulation> getSecondaryLibrary() {
-		return this.secondaryLibrary;
+	/**
+	 * Expands every base phone some variant of which could have the features of
+	 * the matrix, that is every base agreeing with it outside the features a
+	 * secondary articulation can change. Returns whether any phone was added.
+	 */
+	boolean expandFor(final Matrix m) {
+		if (!lazy)
+			return false;
+		boolean added = false;
+		final List<Phone> bases = pm.getBasePhones();
+		for (int i = 0; i < bases.size(); i++) {
+			final Phone base = bases.get(i);
+			if (!expanded.contains(base) && base.getFeatures().hasFeaturesOutside(m, variableSlots))
+				added |= expand(base);
+		}
+		return added;
+	}
+
+	public List<SecondaryArticulation> getSecondaries() {
+		return this.secondaries;
 	}
 
 	public boolean isSecondary(final char c) {
-		for (final Map.Entry<Secondary, SecondaryArticulation> e : secondaryLibrary.entrySet())
-			if (e.getValue().getSegment().charAt(0) == c)
-				return true;
+		return getSecondary(c) != null;
+	}
 
-		return false;
+	SecondaryArticulation getSecondary(final char c) {
+		final int i = c - firstDiacritic;
+		if (i < 0 || i >= diacritics.length)
+			return null;
+		return diacritics[i];
 	}
 
 	public PhoneManager getManager() {
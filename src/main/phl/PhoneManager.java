@@ -1,36 +1,137 @@
 package main.phl;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PhoneManager {
-	private final Map<Matrix, String> phoneLibrary;
+	// Attested phones are interned by their matrix and numbered densely in order
+	// of attestation. Unattested matrices are not kept, so rules producing
+	// temporary matrices cannot grow the inventory.
+	private final Map<Matrix, Phone> phoneLibrary;
+
+	// The ids published together with their count. Ids are only ever appended,
+	// so a snapshot stays valid as later phones are added.
+	private static final class Ids {
+		private final Phone[] phones;
+		private final int count;
+
+		private Ids(final Phone[] phones, final int count) {
+			this.phones = phones;
+			this.count = count;
+		}
+	}
+
+	private volatile Ids ids = new Ids(new Phone[256], 0);
+	private volatile NaturalClassIndex classIndex = null;
+
+	private final TransformationCache transformationCache = new TransformationCache(this,
+			Integer.getInteger("sono.transform.cache", 1 << 16));
+	// Off unless sized, as most words of a large lexicon are only seen once
+	private final RuleCache ruleCache = new RuleCache(Integer.getInteger("sono.rule.cache", 0));
+	private final DerivationStore derivationStore = new DerivationStore(
+			Integer.getInteger("sono.derivation.store", 0));
 	private final List<Phone> baseLibrary;
-	private final List<String> baseValues;
+	private final SegmentTrie baseSegments;
+
+	// Transcriptions already interpreted, bounded so arbitrary input cannot grow
+	// it without limit
+	private static final int MAX_INTERPRETED = 1 << 16;
+	private final Map<String, Phone> interpreted;
 
 	private final List<Integer> featureNames = new ArrayList<>();
+	private int[] featureSlots = new int[0];
 
 	private final Map<Integer, List<Integer>> majorClasses = new HashMap<>();
+	private int[] majorSlots = new int[0];
+	private long[][] classMasks = new long[0][];
 
 	private final PhoneLoader loader;
 
 	public PhoneManager(final PhoneLoader loader) {
 		this.loader = loader;
-		phoneLibrary = new HashMap<>();
+		phoneLibrary = new ConcurrentHashMap<>();
 		baseLibrary = new ArrayList<>();
-		baseValues = new ArrayList<>();
+		baseSegments = new SegmentTrie();
+		interpreted = new ConcurrentHashMap<>();
 	}
 
 	public List<Integer> getFeatureNames() {
 		return this.featureNames;
 	}
 
+	/**
+	 * Loads the feature header of a data file. Features starting with an
+	 * uppercase letter are major classes; the lowercase features following one
+	 * are its sub-features.
+	 */
+	public void setFeatures(final String[] names) {
+		int major = -1;
+		for (final String name : names) {
+			final int feature = Hasher.hash(name);
+			if (Character.isUpperCase(name.charAt(0))) {
+				majorClasses.put(feature, new ArrayList<>());
+				major = feature;
+			} else if (major != -1) {
+				majorClasses.get(major).add(feature);
+			}
+			addFeature(feature);
+		}
+
+		final int words = (featureNames.size() + 63) >>> 6;
+		majorSlots = new int[featureNames.size()];
+		classMasks = new long[featureNames.size()][];
+		Arrays.fill(majorSlots, -1);
+		for (final Map.Entry<Integer, List<Integer>> e : majorClasses.entrySet()) {
+			final int slot = getFeatureIndex(e.getKey());
+			classMasks[slot] = new long[words];
+			for (final int f : e.getValue()) {
+				final int sub = getFeatureIndex(f);
+				majorSlots[sub] = slot;
+				classMasks[slot][sub >>> 6] |= 1L << sub;
+			}
+		}
+	}
+
+	private void addFeature(final int feature) {
+		if (feature >= featureSlots.length) {
+			final int oldLength = featureSlots.length;
+			featureSlots = Arrays.copyOf(featureSlots, Math.max(feature + 1, oldLength * 2));
+			Arrays.fill(featureSlots, oldLength, featureSlots.length, -1);
+		}
+		featureSlots[feature] = featureNames.size();
+		featureNames.add(feature);
+	}
+
+	public int getFeatureIndex(final int feature) {
+		if (feature < 0 || feature >= featureSlots.length)
+			return -1;
+		return featureSlots[feature];
+	}
+
 	public Map<Integer, List<Integer>> getMajorClasses() {
 		return this.majorClasses;
 	}
 
+	/**
+	 * The slot of the major class the feature in the given slot belongs to, or -1.
+	 */
+	int getMajorSlot(final int slot) {
+		return majorSlots[slot];
+	}
+
+	/**
+	 * The mask of sub-features of the major class in the given slot, or
+	 * <code>null</code> if the slot is not a major class.
+	 */
+	long[] getClassMask(final int slot) {
+		return classMasks[slot];
+	}
+
 	public Word interpretSequence(final String s) {
 		final List<Phone> phones = new ArrayList<>();
 		final List<Word.SyllableDelim> delimits = new ArrayList<>();
@@ -49,166 +150,240 @@ public class PhoneManager {
 					delimits.add(Word.SyllableDelim.NULL);
 					break;
 			}
-			final StringBuilder curr = new StringBuilder();
-			while (i < s.length() && (s.charAt(i) == '_' || !baseValues.contains(curr.toString())))
-				curr.append(s.charAt(i++));
+			final int start = i;
+			i = baseSegments.match(s, i);
 			while (i < s.length() && loader.isSecondary(s.charAt(i)))
-				curr.append(s.charAt(i++));
-			if (curr.length() > 0)
-				phones.add(interpretSegment(curr.toString()));
+				i++;
+			if (i > start)
+				phones.add(interpretSegment(s.substring(start, i)));
 		}
 		return new Word(phones, delimits);
 	}
 
-	public Phone interpretSegment(String s) {
-		String segment;
-		if (s.length() >= 3 && s.charAt(1) == '_') {
-			segment = s.substring(0, 3);
-			s = s.substring(3);
-		} else {
-			segment = s.substring(0, 1);
-			s = s.substring(1);
-		}
-		Matrix base = null;
-		if (phoneLibrary.containsValue(segment)) {
-			for (final Map.Entry<Matrix, String> e : phoneLibrary.entrySet()) {
-				if (e.getValue().equals(segment)) {
-					base = e.getKey();
-					break;
-				}
-			}
-		}
+	public Phone interpretSegment(final String s) {
+		final Phone cached = interpreted.get(s);
+		if (cached != null)
+			return cached;
+
+		final int split = s.length() >= 3 && s.charAt(1) == '_' ? 3 : 1;
+		final Phone base = baseSegments.get(s.substring(0, split));
 		if (base == null)
-			throw new IllegalArgumentException(
-					"Cannot interpret [" + segment + s + "], no base phone found from data.");
-
-		Matrix newMatrix = base;
-		final List<PhoneLoader.Secondary> applied = new ArrayList<>();
-		for (int i = 0; i < s.length(); i++) {
-			boolean flag = false;
-			for (final Map.Entry<PhoneLoader.Secondary, SecondaryArticulation> e : loader.getSecondaryLibrary()
-					.entrySet()) {
-				if (s.charAt(i) == e.getValue().getSegment().charAt(0)) {
-					flag = true;
-					applied.add(e.getKey());
-					newMatrix = newMatrix.transform(loader.getSecondaryLibrary().get(e.getKey()).getMatrix());
-					break;
-				}
-			}
-			if (!flag) {
+			throw new IllegalArgumentException("Cannot interpret [" + s + "], no base phone found from data.");
+		loader.expand(base);
+
+		Matrix newMatrix = base.getFeatures();
+		for (int i = split; i < s.length(); i++) {
+			final SecondaryArticulation secondary = loader.getSecondary(s.charAt(i));
+			if (secondary == null)
 				throw new IllegalArgumentException(
-						"Cannot interpret [" + segment + s + "], secondary articulation is unknown: " + s.charAt(i));
-			}
+						"Cannot interpret [" + s + "], secondary articulation is unknown: " + s.charAt(i));
+			newMatrix = newMatrix.transform(secondary.getMatrix());
 		}
-		return this.validate(newMatrix);
+		final Phone phone = this.validate(newMatrix);
+		if (phone.isAttested() && interpreted.size() < MAX_INTERPRETED)
+			interpreted.put(s, phone);
+		return phone;
 	}
 
 	public Feature interpretFeature(final String s) {
 		final String[] split = s.split("\\|");
 		final int quality = Hasher.hash(split[0]);
-		final int value = Hasher.hash(split[1]);
-		int feature = -1;
-		for (final int f : featureNames) {
-			if (f == value) {
-				feature = f;
-				break;
-			}
-		}
-
-		if (feature == -1)
+		final int feature = Hasher.hash(split[1]);
+		if (getFeatureIndex(feature) == -1)
 			return null;
 
 		return new Feature(feature, quality);
 	}
 
-	public Matrix fuzzySearch(final Matrix m) {
-		final Matrix features = m;
-		for (final Map.Entry<Matrix, String> pl : phoneLibrary.entrySet()) {
-			final Matrix temp = pl.getKey();
-			boolean flag = true;
-			for (final Feature e : features) {
-				if (e.getQuality() == Hasher.ZERO)
-					continue;
-				if (e.getQuality() != temp.getQuality(e.getKey())) {
-					flag = false;
-					break;
+	public Phone fuzzySearch(final Matrix m) {
+		final Map.Entry<Phone, Integer> match = fuzzyMatch(m);
+		return match == null ? null : match.getKey();
+	}
+
+	/**
+	 * The attested phone closest to the matrix among those having exactly the
+	 * quality of each of its features, paired with the number of features in
+	 * which they differ, or <code>null</code> if there is none. Ties go to the
+	 * phone interned first.
+	 */
+	public Map.Entry<Phone, Integer> fuzzyMatch(final Matrix m) {
+		final Ids snapshot = ids;
+		final NaturalClassIndex index = getClassIndex();
+		final long[] candidates = index.query(m, false);
+
+		Phone best = null;
+		int bestDistance = Integer.MAX_VALUE;
+		for (int i = 0; i < candidates.length; i++) {
+			long bits = candidates[i];
+			while (bits != 0) {
+				final Phone p = index.get((i << 6) + Long.numberOfTrailingZeros(bits));
+				bits &= bits - 1;
+				final int distance = p.getFeatures().distance(m);
+				if (distance < bestDistance) {
+					best = p;
+					bestDistance = distance;
 				}
 			}
-			if (flag)
-				return pl.getKey();
 		}
-		return null;
+		// phones added since the index was built, none if another thread built it
+		// from a newer snapshot
+		for (int id = index.size(); id < snapshot.count; id++) {
+			final Phone p = snapshot.phones[id];
+			if (!p.getFeatures().matches(m))
+				continue;
+			final int distance = p.getFeatures().distance(m);
+			if (distance < bestDistance) {
+				best = p;
+				bestDistance = distance;
+			}
+		}
+
+		return best == null ? null : new AbstractMap.SimpleImmutableEntry<>(best, bestDistance);
 	}
 
 	public int inMajorClass(final int feature) {
-		for (final Map.Entry<Integer, List<Integer>> e : majorClasses.entrySet())
-			if (e.getValue().contains(feature))
-				return e.getKey();
-		return -1;
+		final int slot = getFeatureIndex(feature);
+		if (slot == -1 || majorSlots[slot] == -1)
+			return -1;
+		return featureNames.get(majorSlots[slot]);
 	}
 
 	public List<Phone> getPhones(final List<Phone> library, final Matrix map) {
 		final List<Phone> phones = new ArrayList<>();
 
-		for (int i = 0; i < library.size(); i++)
-			if (library.get(i).hasFeatures(map))
-				phones.add(library.get(i));
+		if (library.size() < 64) {
+			for (int i = 0; i < library.size(); i++)
+				if (library.get(i).hasFeatures(map))
+					phones.add(library.get(i));
+			return phones;
+		}
+
+		final NaturalClassIndex index = getClassIndex();
+		final long[] matches = index.query(map, true);
+		for (int i = 0; i < library.size(); i++) {
+			final Phone p = library.get(i);
+			if (p.getId() >= 0 && p.getId() < index.size() ? NaturalClassIndex.contains(matches, p.getId()) : p.hasFeatures(map))
+				phones.add(p);
+		}
 
 		return phones;
 	}
 
+	/**
+	 * The natural class index, rebuilt once enough phones have been interned
+	 * since it was last built. Newer phones are tested directly.
+	 */
+	private NaturalClassIndex getClassIndex() {
+		final Ids snapshot = ids;
+		NaturalClassIndex index = classIndex;
+		if (index == null || snapshot.count - index.size() > index.size() >> 3) {
+			index = new NaturalClassIndex(snapshot.phones, snapshot.count, featureNames.size());
+			classIndex = index;
+		}
+		return index;
+	}
+
 	public boolean contains(final Matrix matrix) {
 		return phoneLibrary.containsKey(matrix);
 	}
 
-	public void add(final Phone phone, final boolean validate) {
-		if (validate) {
-			if (!phoneLibrary.containsKey(phone.getMatrix())
-					|| phoneLibrary.get(phone.getMatrix()).length() > phone.getSegment().length())
-				phoneLibrary.put(phone.getMatrix(), phone.getSegment());
-		} else if (!phone.getSegment().equals("*")) {
-			phoneLibrary.put(phone.getMatrix(), phone.getSegment());
-			if (!baseValues.contains(phone.getSegment())
-					&& ((phone.getSegment().length() == 3 && phone.getSegment().charAt(1) == '_')
-							|| phone.getSegment().length() == 1)) {
-				baseValues.add(phone.getSegment());
-				baseLibrary.add(phone);
-			}
+	/**
+	 * Attests the phone of the given matrix under the segment, or returns
+	 * <code>null</code> if the matrix already has one.
+	 */
+	synchronized Phone addPhone(final String segment, final Matrix features) {
+		final Phone phone = attest(segment, features);
+		if (phone != null && phone.isAttested()) {
+			// fuzzy and unattested results may now resolve to this phone
+			transformationCache.clear();
+			ruleCache.clear();
+			derivationStore.clear();
 		}
+		return phone;
+	}
+
+	/**
+	 * Attests a variant derived by a lazy inventory, keeping the caches. A
+	 * transformation derives the variants that could have its result before
+	 * looking for it, and every variant sharing the base of such a phone is
+	 * derived with it, so no cached result could have resolved to a variant
+	 * derived later.
+	 */
+	synchronized Phone addVariant(final String segment, final Matrix features) {
+		return attest(segment, features);
+	}
+
+	private Phone attest(final String segment, final Matrix features) {
+		if (segment.equals("*"))
+			return validate(features);
+		if (phoneLibrary.containsKey(features))
+			return null;
+		final Ids current = ids;
+		final int id = current.count;
+		final Phone phone = new Phone(this, id, new Matrix(this, features), segment);
+		final Phone[] phones = id == current.phones.length ? Arrays.copyOf(current.phones, id * 2)
+				: current.phones;
+		phones[id] = phone;
+		ids = new Ids(phones, id + 1);
+		phoneLibrary.put(phone.getFeatures(), phone);
+		if (((segment.length() == 3 && segment.charAt(1) == '_') || segment.length() == 1)
+				&& baseSegments.add(segment, phone))
+			baseLibrary.add(phone);
+		return phone;
+	}
+
+	public boolean isLazy() {
+		return loader.isLazy();
+	}
+
+	/**
+	 * In a lazy inventory, derives the variants of every base phone that could
+	 * have the features of the matrix. Returns whether any phone was added.
+	 */
+	public boolean derive(final Matrix m) {
+		return loader.expandFor(m);
+	}
+
+	public TransformationCache getTransformationCache() {
+		return transformationCache;
+	}
+
+	public RuleCache getRuleCache() {
+		return ruleCache;
+	}
+
+	public DerivationStore getDerivationStore() {
+		return derivationStore;
+	}
+
+	/**
+	 * The number of attested phones.
+	 */
+	public int getPhoneCount() {
+		return ids.count;
+	}
+
+	public Phone getPhone(final int id) {
+		final Ids snapshot = ids;
+		if (id < 0 || id >= snapshot.count)
+			return null;
+		return snapshot.phones[id];
 	}
 
 	public Matrix getCommon(final List<Phone> phones) {
-		final Matrix common = new Matrix(this);
-		for (int i = 0; i < featureNames.size(); i++) {
-			final int f = phones.get(0).getFeatureQuality(featureNames.get(i));
-			boolean flag = true;
-			for (int j = 1; j < phones.size(); j++)
-				if (phones.get(j).getFeatureQuality(featureNames.get(i)) != f) {
-					flag = false;
-					break;
-				}
-			if (flag && f != Hasher.ZERO)
-				common.put(featureNames.get(i), f);
-		}
+		final Matrix common = new Matrix(this, phones.get(0).getFeatures());
+		for (int j = 1; j < phones.size(); j++)
+			common.retainCommon(phones.get(j).getFeatures());
 		return common;
 	}
 
 	public Matrix getContrast(final Phone a, final Phone b) {
-		final Matrix contrast = new Matrix(this);
-		for (int i = 0; i < featureNames.size(); i++)
-			if (a.getFeatureQuality(featureNames.get(i)) != b.getFeatureQuality(featureNames.get(i))
-					&& b.getFeatureQuality(featureNames.get(i)) != Hasher.ZERO)
-				contrast.put(featureNames.get(i), b.getFeatureQuality(featureNames.get(i)));
-
-		return contrast;
+		return a.getFeatures().contrast(b.getFeatures());
 	}
 
 	public List<Phone> getAllPhones() {
-		final List<Phone> phones = new ArrayList<>();
-		for (final Map.Entry<Matrix, String> e : phoneLibrary.entrySet())
-			phones.add(new Phone(this, e.getValue(), e.getKey(), false));
-
-		return phones;
+		final Ids snapshot = ids;
+		return new ArrayList<>(Arrays.asList(snapshot.phones).subList(0, snapshot.count));
 	}
 
 	public List<Phone> getBasePhones() {
@@ -216,18 +391,20 @@ public class PhoneManager {
 	}
 
 	public Phone registerNewPhone(final String segment, final Matrix features) {
-		if (validate(features) != null)
+		if (contains(features))
 			return null;
-		phoneLibrary.put(features, segment);
-		return new Phone(this, segment, features, false);
+		return addPhone(segment, features);
 	}
 
+	/**
+	 * The attested phone of the matrix, or an unattested one that is not kept.
+	 */
 	public Phone validate(final Matrix m) {
 		if (m == null)
 			return null;
-		if (phoneLibrary.containsKey(m))
-			return new Phone(this, phoneLibrary.get(m), m, true);
-		else
-			return new Phone(this, "*", m, false);
+		final Phone phone = phoneLibrary.get(m);
+		if (phone != null)
+			return phone;
+		return new Phone(this, -1, new Matrix(this, m), "*");
 	}
 }
\ No newline at end of file
@@ -1,9 +1,9 @@
 package main.phl;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 import main.sono.Interpreter;
 
@@ -52,6 +52,88 @@ public class Rule {
 
 	private final Type type;
 
+	// The rule compiled once against the positions it inspects. The initial
+	// context is held nearest element first, in the order it is matched.
+	private final Element searchElement;
+	private final Element[] initElements;
+	private final Element[] finElements;
+	private final Element[] transElements;
+	private final int maxAlpha;
+	// The number of phones the search and contexts match together
+	private final int span;
+	private final long fingerprint;
+
+	/**
+	 * An element of a compiled rule: the phone, matrix or boundary it matches,
+	 * the offset from the searched phone it is matched at, the offset of the
+	 * phone its alpha variables are bound from, and the slots of those variables. A phone or matrix also keeps the
+	 * <code>+</code> and <code>-</code> features any phone it matches must have.
+	 */
+	private static final class Element {
+		private final Object value;
+		private final Matrix matrix;
+		private final int offset;
+		private final int captureOffset;
+		private final int[] alphaSlots;
+		private final int[] alphaQualities;
+		private final int[] alphaIndices;
+		// The alpha slots and the features under them, which binding can change
+		private final long[] alphaMask;
+		private final long[] positive;
+		private final long[] negative;
+
+		private Element(final Object value, final int offset, final int captureOffset) {
+			this.value = value;
+			this.matrix = value.getClass() == Matrix.class ? (Matrix) value : null;
+			this.offset = offset;
+			this.captureOffset = captureOffset;
+
+			int count = 0;
+			if (matrix != null)
+				for (int slot = matrix.nextSlot(0); slot != -1; slot = matrix.nextSlot(slot + 1))
+					if (alphaIndex(matrix.getQualityAt(slot)) != -1)
+						count++;
+			alphaSlots = new int[count];
+			alphaQualities = new int[count];
+			alphaIndices = new int[count];
+			if (count > 0) {
+				int i = 0;
+				for (int slot = matrix.nextSlot(0); slot != -1; slot = matrix.nextSlot(slot + 1)) {
+					final int q = matrix.getQualityAt(slot);
+					final int alpha = alphaIndex(q);
+					if (alpha != -1) {
+						alphaSlots[i] = slot;
+						alphaQualities[i] = q;
+						alphaIndices[i] = alpha;
+						i++;
+					}
+				}
+				alphaMask = matrix.maskOf(alphaSlots);
+			} else {
+				alphaMask = null;
+			}
+
+			final Matrix required = value.getClass() == Phone.class ? ((Phone) value).getFeatures() : matrix;
+			positive = required == null ? null : required.plainFeatures(true, alphaMask);
+			negative = required == null ? null : required.plainFeatures(false, alphaMask);
+		}
+
+		private boolean isVariable() {
+			return alphaSlots.length > 0;
+		}
+
+		/**
+		 * The quality naming the alpha variable <code>index</code> in this element,
+		 * or -1 if it does not use it.
+		 */
+		private int qualityOf(final int index) {
+			for (int i = 0; i < alphaIndices.length; i++)
+				if (alphaIndices[i] == index)
+					return alphaQualities[i];
+			return -1;
+		}
+	}
+
 	public static class DeleteForward extends Rule {
 		public DeleteForward(final Object search, final List<Object> trans, final List<Object> init,
 				final List<Object> fin) {
@@ -79,184 +161,200 @@ public class Rule {
 		this.init = init;
 		this.fin = fin;
 		this.type = type;
+
+		searchElement = search == null ? null : new Element(search, 0, 0);
+		initElements = new Element[init.size()];
+		int initOffset = 0;
+		for (int k = 0; k < initElements.length; k++) {
+			final Object e = init.get(init.size() - 1 - k);
+			if (!(e instanceof Variants))
+				initOffset++;
+			initElements[k] = new Element(e, -initOffset, -(k + 1));
+		}
+		finElements = new Element[fin.size()];
+		int finOffset = (search == null ? -1 : 0);
+		for (int j = 0; j < finElements.length; j++) {
+			final Object e = fin.get(j);
+			if (!(e instanceof Variants))
+				finOffset++;
+			finElements[j] = new Element(e, finOffset, j + (search != null ? 1 : 0));
+		}
+		transElements = new Element[trans.size()];
+		for (int j = 0; j < transElements.length; j++)
+			transElements[j] = new Element(trans.get(j), 0, 0);
+
+		int max = 0;
+		for (final Element[] elements : new Element[][] { initElements, finElements, transElements,
+				{ searchElement } })
+			for (final Element e : elements)
+				if (e != null)
+					for (final int alpha : e.alphaIndices)
+						max = Math.max(max, alpha);
+		maxAlpha = max;
+
+		int phonesMatched = searchElement != null && searchElement.positive != null ? 1 : 0;
+		for (final Element[] elements : new Element[][] { initElements, finElements })
+			for (final Element e : elements)
+				if (e.positive != null)
+					phonesMatched++;
+		span = phonesMatched;
+		fingerprint = fingerprint(type, search, trans, init, fin);
+	}
+
+	private static String phoneKey(final Phone p) {
+		return p.isAttested() ? "#" + p.getId() : "*" + p.getMatrix();
+	}
+
+	/**
+	 * A 64-bit FNV-1a hash of the type and elements of a rule, equal for rules
+	 * declared alike. Attested phones are hashed by id and unattested ones by
+	 * their matrix, as they share a segment.
+	 */
+	private static long fingerprint(final Type type, final Object search, final List<Object> trans,
+			final List<Object> init, final List<Object> fin) {
+		final StringBuilder s = new StringBuilder(type.name());
+		for (final List<Object> elements : Arrays.asList(Collections.singletonList(search), trans, init, fin)) {
+			s.append('|').append(elements.size());
+			for (final Object e : elements)
+				s.append(';').append(e instanceof Phone ? phoneKey((Phone) e) : String.valueOf(e));
+		}
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			hash ^= s.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Whether the rule might apply somewhere in the word: it must be long enough,
+	 * and every feature the search and contexts require must occur in it.
+	 */
+	private boolean mayApply(final WordIndex index) {
+		if (index.size() < span)
+			return false;
+		if (searchElement != null && searchElement.positive != null
+				&& !index.mayContain(searchElement.positive, searchElement.negative))
+			return false;
+		for (final Element[] elements : new Element[][] { initElements, finElements })
+			for (final Element e : elements)
+				if (e.positive != null && !index.mayContain(e.positive, e.negative))
+					return false;
+		return true;
+	}
+
+	/**
+	 * The alpha variable a quality names, or -1 if it is not one.
+	 */
+	private static int alphaIndex(final int quality) {
+		final String name = Hasher.deHash(quality);
+		if (name.isEmpty() || name.length() > 9)
+			return -1;
+		for (int i = 0; i < name.length(); i++)
+			if (name.charAt(i) < '0' || name.charAt(i) > '9')
+				return -1;
+		final int index = Integer.parseInt(name);
+		return String.valueOf(index).equals(name) ? index : -1;
 	}
 
 	public Word transform(final PhoneManager pm, final Word sequence) {
-		final List<Phone> phones = new ArrayList<>();
-		final List<Word.SyllableDelim> delimits = new ArrayList<>();
+		return transform(pm, sequence, null);
+	}
+
+	/**
+	 * Applies the rule, recording the application in the trace if there is one.
+	 */
+	public Word transform(final PhoneManager pm, final Word sequence, final RuleTrace trace) {
+		if (trace == null)
+			return rewrite(pm, sequence, null);
+		final int[] counts = new int[2];
+		final long start = System.nanoTime();
+		final Word result = rewrite(pm, sequence, counts);
+		trace.record(this, sequence, result, counts[0], counts[1], System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * Rewrites the word, counting the positions tested and matched when given
+	 * somewhere to.
+	 */
+	private Word rewrite(final PhoneManager pm, final Word sequence, final int[] counts) {
+		// A rule that cannot apply would only rebuild the word as it is
+		final WordIndex index = sequence.getIndex(pm);
+		if (sequence.isAligned() && !mayApply(index))
+			return sequence;
+		final long[] candidates = searchElement != null && searchElement.positive != null
+				? index.candidates(searchElement.positive, searchElement.negative)
+				: null;
+		if (candidates != null && sequence.isAligned() && WordIndex.isEmpty(candidates))
+			return sequence;
+
+		final Word.Builder result = new Word.Builder(sequence.size());
 		boolean assimilateFlag = false;
 		int dOffset = 0;
 		for (int i = 0; i < sequence.size(); i++) {
 			final Phone phone = sequence.get(i);
-			final Word.SyllableDelim delim = sequence.getDelim(i + dOffset);
+			final byte delim = sequence.delimAt(i + dOffset);
 			if (assimilateFlag) {
 				assimilateFlag = false;
-				if (delim != Word.SyllableDelim.NULL) {
-					delimits.add(delim);
+				if (delim != Word.NULL) {
+					result.addDelim(delim);
 					dOffset++;
 				}
 				continue;
 			}
-			final Map<Integer, Matrix> assimilationMaps = new HashMap<>();
-
-			Object tempSearch = search;
-			final List<Object> tempInit = new ArrayList<>();
-			final List<Object> tempFin = new ArrayList<>();
-			final List<Object> tempTrans = new ArrayList<>();
-
-			int currentIndex = 1;
-			if (search != null && search.getClass() == Matrix.class) {
-				tempSearch = new Matrix(pm);
-				((Matrix) tempSearch).putAll((Matrix) search);
-				for (final Feature se : (Matrix) tempSearch) {
-					if (Hasher.deHash(se.getQuality()).equals(String.valueOf(currentIndex))) {
-						if (assimilationMaps.get(currentIndex) == null)
-							assimilationMaps.put(currentIndex, new Matrix(pm));
-						assimilationMaps.get(currentIndex).put(se.getKey(), phone.getFeatureQuality(se.getKey()));
-					}
-				}
-			}
-			currentIndex++;
-			for (int j = 0; j < init.size(); j++) {
-				final Phone target = sequence.get((i - init.size()) + j);
-				final Object e = init.get(j);
-				if (target != null && target.getClass() == Phone.class && e.getClass() == Matrix.class) {
-					final Matrix temp = new Matrix(pm);
-					temp.putAll((Matrix) e);
-					tempInit.add(0, temp);
-					for (final Feature ie : temp) {
-						if (Hasher.deHash(ie.getQuality()).equals(String.valueOf(currentIndex))) {
-							if (assimilationMaps.get(currentIndex) == null)
-								assimilationMaps.put(currentIndex, new Matrix(pm));
-							assimilationMaps.get(currentIndex).put(ie.getKey(), target.getFeatureQuality(ie.getKey()));
-						}
-					}
-					currentIndex++;
-				} else if (e.getClass() == Phone.class) {
-					tempInit.add(0, e);
-					currentIndex++;
-				} else {
-					tempInit.add(0, e);
-				}
-			}
-			for (int j = 0; j < fin.size(); j++) {
-				final Phone target = sequence.get(i + j + (search != null ? 1 : 0));
-				final Object e = fin.get(j);
-				if (target != null && target.getClass() == Phone.class && e.getClass() == Matrix.class) {
-					final Matrix temp = new Matrix(pm);
-					temp.putAll((Matrix) e);
-					tempFin.add(temp);
-					for (final Feature fe : temp) {
-						if (Hasher.deHash(fe.getQuality()).equals(String.valueOf(currentIndex))) {
-							if (assimilationMaps.get(currentIndex) == null)
-								assimilationMaps.put(currentIndex, new Matrix(pm));
-							assimilationMaps.get(currentIndex).put(fe.getKey(), target.getFeatureQuality(fe.getKey()));
-						}
-					}
-					currentIndex++;
-				} else if (e.getClass() == Phone.class) {
-					tempFin.add(e);
-					currentIndex++;
-				} else {
-					tempFin.add(e);
-				}
-			}
-			for (int j = 0; j < trans.size(); j++) {
-				final Object e = trans.get(j);
-				if (e.getClass() == Matrix.class) {
-					final Matrix temp = new Matrix(pm);
-					temp.putAll((Matrix) e);
-					tempTrans.add(temp);
-				} else {
-					tempTrans.add(e);
-				}
-			}
 
-			for (final Map.Entry<Integer, Matrix> e : assimilationMaps.entrySet()) {
-				if (tempSearch != null && tempSearch.getClass() == Matrix.class)
-					for (final Feature feature : e.getValue())
-						if (Hasher.deHash(((Matrix) tempSearch).getQuality(feature.getKey()))
-								.equals(String.valueOf(e.getKey())))
-							((Matrix) tempSearch).put(feature.getKey(), feature.getQuality());
-				for (final Object m : tempInit)
-					if (m.getClass() == Matrix.class)
-						for (final Feature feature : e.getValue())
-							if (Hasher.deHash(((Matrix) m).getQuality(feature.getKey()))
-									.equals(String.valueOf(e.getKey())))
-								((Matrix) m).put(feature.getKey(), feature.getQuality());
-				for (final Object m : tempFin)
-					if (m.getClass() == Matrix.class)
-						for (final Feature feature : e.getValue())
-							if (Hasher.deHash(((Matrix) m).getQuality(feature.getKey()))
-									.equals(String.valueOf(e.getKey())))
-								((Matrix) m).put(feature.getKey(), feature.getQuality());
-				for (final Object m : tempTrans)
-					if (m.getClass() == Matrix.class)
-						for (final Feature feature : e.getValue())
-							if (Hasher.deHash(((Matrix) m).getQuality(feature.getKey()))
-									.equals(String.valueOf(e.getKey())))
-								((Matrix) m).put(feature.getKey(), feature.getQuality());
-			}
-
-			boolean flag = false;
-			if (tempSearch == null || applicable(i, sequence, tempSearch)) {
-				flag = true;
-				int initOffset = 0;
-				for (int j = 0; j < tempInit.size(); j++) {
-					if (tempInit.get(j).getClass() == Phone.class || tempInit.get(j).getClass() == Matrix.class)
-						initOffset++;
-
-					if (!applicable(i - initOffset, sequence, tempInit.get(j))) {
-						flag = false;
-						break;
-					}
-				}
-				int finOffset = (search == null ? -1 : 0);
-				for (int j = 0; j < tempFin.size(); j++) {
-					if (tempFin.get(j).getClass() == Phone.class || tempFin.get(j).getClass() == Matrix.class)
-						finOffset++;
-
-					if (!applicable(i + finOffset, sequence, tempFin.get(j))) {
-						flag = false;
-						break;
-					}
-				}
+			// Alpha variables are only bound once everything else has matched
+			Matrix[] bound = null;
+			final boolean candidate = candidates == null || WordIndex.contains(candidates, i);
+			if (counts != null && candidate)
+				counts[0]++;
+			boolean flag = candidate && matches(pm, i, sequence, null);
+			if (flag && maxAlpha > 0) {
+				bound = bind(pm, i, sequence);
+				flag = matches(pm, i, sequence, bound);
 			}
 
 			if (flag) {
+				if (counts != null)
+					counts[1]++;
 				int c = 0;
 				if (type == Type.A_BACKWARD) {
-					phones.remove(phones.size() - 1);
-					delimits.remove(delimits.size() - 1);
+					result.removeLast();
+					result.removeLastDelim();
 				}
-				if (tempTrans.isEmpty() && !delimits.isEmpty() && sequence.getDelim(i + 1) != Word.SyllableDelim.NULL) {
-					delimits.remove(delimits.size() - 1);
-					delimits.add(delim);
+				if (transElements.length == 0 && result.delimCount() > 0 && sequence.delimAt(i + 1) != Word.NULL) {
+					result.removeLastDelim();
+					result.addDelim(delim);
 				}
-				for (final Object e : tempTrans) {
+				for (final Element e : transElements) {
 					Phone addition = null;
-					if (e.getClass() == Matrix.class)
-						addition = phone.transform((Matrix) e, true);
-					else if (e.getClass() == Phone.class)
-						addition = (Phone) e;
+					if (e.matrix != null)
+						addition = phone.transform(resolve(pm, e, bound), true);
+					else if (e.value.getClass() == Phone.class)
+						addition = (Phone) e.value;
 
-					phones.add(addition);
-					if (phones.size() > delimits.size()) {
+					result.add(addition);
+					if (result.size() > result.delimCount()) {
 						if (c == 0)
-							delimits.add(delim);
+							result.addDelim(delim);
 						else if (c >= 1)
-							delimits.add(Word.SyllableDelim.NULL);
+							result.addDelim(Word.NULL);
 
 						if (search == null) {
-							phones.add(phone);
-							if (delimits.size() > 2) {
-								delimits.remove(delimits.size() - 1);
-								delimits.remove(delimits.size() - 1);
-								delimits.add(Word.SyllableDelim.DELIM);
-								delimits.add(Word.SyllableDelim.NULL);
-								delimits.add(Word.SyllableDelim.DELIM);
+							result.add(phone);
+							if (result.delimCount() > 2) {
+								result.removeLastDelim();
+								result.removeLastDelim();
+								result.addDelim(Word.SYLLABLE);
+								result.addDelim(Word.NULL);
+								result.addDelim(Word.SYLLABLE);
 							} else {
-								delimits.add(Word.SyllableDelim.DELIM);
+								result.addDelim(Word.SYLLABLE);
 							}
 						}
 					}
@@ -265,42 +363,237 @@ public class Rule {
 				if (type == Type.A_FORWARD)
 					assimilateFlag = true;
 			} else {
-				phones.add(phone);
-				delimits.add(delim);
+				result.add(phone);
+				result.addDelim(delim);
 			}
 		}
-		return new Word(phones, delimits);
+		return result.build();
+	}
+
+	/**
+	 * Whether the search and both contexts match at the given index. Without
+	 * bindings, the features under alpha variables are not checked.
+	 */
+	private boolean matches(final PhoneManager pm, final int index, final Word sequence, final Matrix[] bound) {
+		if (searchElement != null && !applicable(pm, index, sequence, searchElement, bound))
+			return false;
+		for (final Element e : initElements)
+			if (!applicable(pm, index + e.offset, sequence, e, bound))
+				return false;
+		for (final Element e : finElements)
+			if (!applicable(pm, index + e.offset, sequence, e, bound))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Binds the alpha variables of the rule at the given index. Variables are
+	 * numbered from the search, then through the initial and final contexts.
+	 */
+	private Matrix[] bind(final PhoneManager pm, final int index, final Word sequence) {
+		final Matrix[] bound = new Matrix[maxAlpha + 1];
+		if (searchElement != null && searchElement.matrix != null)
+			capture(pm, bound, 1, searchElement, sequence.get(index));
+		int currentIndex = 2;
+		for (int k = initElements.length - 1; k >= 0; k--)
+			currentIndex = capture(pm, bound, currentIndex, initElements[k],
+					sequence.get(index + initElements[k].captureOffset));
+		for (final Element e : finElements)
+			currentIndex = capture(pm, bound, currentIndex, e, sequence.get(index + e.captureOffset));
+		return bound;
 	}
 
-	private boolean applicable(final int index, final Word sequence, final Object o) {
-		if (sequence.get(index) != null && (o.getClass() == Phone.class || o.getClass() == Matrix.class)) {
-			if (o.getClass() == Matrix.class) {
-				return ((Phone) sequence.get(index)).hasFeatures((Matrix) o);
-			} else if (o.getClass() == Phone.class) {
-				return ((Phone) sequence.get(index)).equals(o);
+	/**
+	 * Records the qualities of the target phone for every feature of the element
+	 * bound to the alpha variable <code>index</code>. Returns the index of the next
+	 * variable.
+	 */
+	private static int capture(final PhoneManager pm, final Matrix[] bound, final int index, final Element e,
+			final Phone target) {
+		if (e.matrix != null && target != null) {
+			for (int i = 0; i < e.alphaSlots.length; i++) {
+				if (e.alphaIndices[i] == index) {
+					if (bound[index] == null)
+						bound[index] = new Matrix(pm);
+					bound[index].putAt(e.alphaSlots[i], target.getFeatures().getQualityAt(e.alphaSlots[i]));
+				}
 			}
-		} else if (o.getClass() != Matrix.class && o.getClass() != Phone.class) {
-			switch ((Variants) o) {
-				case WORD_FINAL:
-					return index == sequence.size() - 1;
-				case WORD_INITIAL:
-					return index == 0;
-				case SYLLABLE_INIT:
-					return index == sequence.size() || index == 0
-							|| sequence.getDelim(index) == Word.SyllableDelim.DELIM
-							|| sequence.getDelim(index) == Word.SyllableDelim.MORPHEME;
-				case SYLLABLE_END:
-					return index == sequence.size() - 1 || index == 0
-							|| sequence.getDelim(index + 1) == Word.SyllableDelim.DELIM
-							|| sequence.getDelim(index + 1) == Word.SyllableDelim.MORPHEME;
-				case MORPHEME:
-					return index == sequence.size() - 1 || index == 0
-							|| sequence.getDelim(index) == Word.SyllableDelim.MORPHEME;
-				default:
-					return false;
+			return index + 1;
+		}
+		return e.value.getClass() == Phone.class ? index + 1 : index;
+	}
+
+	/**
+	 * The matrix of the element with its alpha variables replaced by their bound
+	 * qualities.
+	 */
+	private static Matrix resolve(final PhoneManager pm, final Element e, final Matrix[] bound) {
+		if (bound == null || !e.isVariable())
+			return e.matrix;
+		final Matrix m = new Matrix(pm);
+		m.putAll(e.matrix);
+		for (int index = 0; index < bound.length; index++) {
+			final int alpha = e.qualityOf(index);
+			if (bound[index] != null && alpha != -1)
+				assimilate(m, bound[index], alpha);
+		}
+		return m;
+	}
+
+	/**
+	 * Replaces every feature of the matrix bound to the alpha variable with the
+	 * captured quality.
+	 */
+	private static void assimilate(final Matrix m, final Matrix captured, final int alpha) {
+		for (int slot = captured.nextSlot(0); slot != -1; slot = captured.nextSlot(slot + 1))
+			if (m.getQualityAt(slot) == alpha)
+				m.putAt(slot, captured.getQualityAt(slot));
+	}
+
+	private static boolean applicable(final PhoneManager pm, final int index, final Word sequence, final Element e,
+			final Matrix[] bound) {
+		if (!(e.value instanceof Variants))
+			return applicable(pm, sequence.get(index), e, bound);
+		switch ((Variants) e.value) {
+			case WORD_FINAL:
+				return index == sequence.size() - 1;
+			case WORD_INITIAL:
+				return index == 0;
+			case SYLLABLE_INIT:
+				return index == sequence.size() || index == 0 || sequence.isSyllableBoundary(index);
+			case SYLLABLE_END:
+				return index == sequence.size() - 1 || index == 0 || sequence.isSyllableBoundary(index + 1);
+			case MORPHEME:
+				return index == sequence.size() - 1 || index == 0 || sequence.isMorphemeBoundary(index);
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Whether the phone matches the phone or matrix of the element. Without
+	 * bindings, the features under alpha variables are not checked.
+	 */
+	private static boolean applicable(final PhoneManager pm, final Phone target, final Element e,
+			final Matrix[] bound) {
+		if (e.matrix != null) {
+			if (target == null)
+				return false;
+			if (!e.isVariable())
+				return target.hasFeatures(e.matrix);
+			if (bound == null)
+				return target.getFeatures().hasFeaturesOutside(e.matrix, e.alphaMask);
+			return target.hasFeatures(resolve(pm, e, bound));
+		}
+		return e.value.equals(target);
+	}
+
+	/**
+	 * Why the rule cannot be composed into a {@link Transducer}, or
+	 * <code>null</code> if it can. Only rules rewriting one phone into one phone
+	 * by what it and its neighbours are keep the length of a word and read a
+	 * bounded window of it.
+	 */
+	public String getUncompilableReason() {
+		if (type != Type.SIMPLE)
+			return "as it deletes a neighbouring phone";
+		if (search == null)
+			return "as it inserts phones";
+		if (transElements.length != 1)
+			return "as it rewrites a phone into " + transElements.length + " phones";
+		if (maxAlpha > 0)
+			return "as its alpha variables are bound from each word";
+		if (phoneElements().length > Long.SIZE)
+			return "as it matches more than " + Long.SIZE + " phones";
+		return null;
+	}
+
+	/**
+	 * The search and contexts that match a phone rather than a boundary.
+	 */
+	private Element[] phoneElements() {
+		final List<Element> elements = new ArrayList<>();
+		for (final Element[] group : new Element[][] { { searchElement }, initElements, finElements })
+			for (final Element e : group)
+				if (e != null && !(e.value instanceof Variants))
+					elements.add(e);
+		return elements.toArray(new Element[0]);
+	}
+
+	/**
+	 * The most positions before the rewritten phone the rule reads, or checks to
+	 * exist when matching a boundary.
+	 */
+	int getLeftReach() {
+		return reach(true);
+	}
+
+	/**
+	 * The most positions after the rewritten phone the rule reads, or checks to
+	 * exist when matching a boundary.
+	 */
+	int getRightReach() {
+		return reach(false);
+	}
+
+	private int reach(final boolean left) {
+		int reach = 0;
+		for (final Element[] group : new Element[][] { { searchElement }, initElements, finElements }) {
+			for (final Element e : group) {
+				if (e == null)
+					continue;
+				final int o = e.offset;
+				int before = -o;
+				int after = o;
+				if (e.value instanceof Variants) {
+					switch ((Variants) e.value) {
+						case WORD_INITIAL:
+						case SYLLABLE_INIT:
+							before = 1 - o;
+							break;
+						case WORD_FINAL:
+							after = o + 1;
+							break;
+						default:
+							before = 1 - o;
+							after = o + 1;
+							break;
+					}
+				}
+				reach = Math.max(reach, left ? before : after);
 			}
 		}
-		return false;
+		return reach;
+	}
+
+	/**
+	 * Whether the rule rewrites the phone at the index of the word.
+	 */
+	boolean matchesAt(final PhoneManager pm, final Word sequence, final int index) {
+		return matches(pm, index, sequence, null);
+	}
+
+	/**
+	 * One bit per phone the search and contexts match, set if the phone matches
+	 * it. Phones with the same bits are alike to the rule wherever they stand.
+	 */
+	long predicates(final PhoneManager pm, final Phone phone) {
+		final Element[] elements = phoneElements();
+		long bits = 0;
+		for (int i = 0; i < elements.length; i++)
+			if (applicable(pm, phone, elements[i], null))
+				bits |= 1L << i;
+		return bits;
+	}
+
+	/**
+	 * The phone the rule rewrites the given one into where it applies.
+	 */
+	Phone rewrite(final Phone phone) {
+		final Element e = transElements[0];
+		if (e.matrix != null)
+			return phone == null ? null : phone.transform(e.matrix, true);
+		return e.value.getClass() == Phone.class ? (Phone) e.value : null;
 	}
 
 	@Override
@@ -330,9 +623,13 @@ public class Rule {
 		return s.toString();
 	}
 
+	/**
+	 * The fingerprint folded to an int, consistent with <code>equals</code> as
+	 * equal rules are declared alike.
+	 */
 	@Override
 	public int hashCode() {
-		return 1;
+		return Long.hashCode(fingerprint);
 	}
 
 	@Override
@@ -348,15 +645,8 @@ public class Rule {
 			return false;
 		if ((search != null && !search.equals(r.search)) || (search == null && r.search != null))
 			return false;
-		for (int i = 0; i < trans.size(); i++)
-			if (!trans.get(i).equals(r.trans.get(i)))
-				return false;
-		for (int i = 0; i < init.size(); i++)
-			if (!init.get(i).equals(r.init.get(i)))
-				return false;
-		for (int i = 0; i < fin.size(); i++)
-			if (!fin.get(i).equals(r.fin.get(i)))
-				return false;
-		return true;
+		if (fingerprint != r.fingerprint)
+			return false;
+		return trans.equals(r.trans) && init.equals(r.init) && fin.equals(r.fin);
 	}
 }
\ No newline at end of file
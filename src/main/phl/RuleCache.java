@@ -0,0 +1,111 @@
+package main.phl;
+
+import java.util.Arrays;
+
+/**
+ * A concurrent, size-bounded cache of rule applications, keyed by the content
+ * of the rule and of the word it was applied to, so rules declared alike share
+ * entries. Like the transformation cache it is a {@link SegmentedCache},
+ * evicting the least recently used applications. A capacity of 0 disables it.
+ */
+public class RuleCache {
+	private static final class Key {
+		private final Rule rule;
+		private final Word word;
+		private final int hash;
+
+		private Key(final Rule rule, final Word word) {
+			this.rule = rule;
+			this.word = word;
+			this.hash = 31 * rule.hashCode() + word.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (o == this)
+				return true;
+			if (!(o instanceof Key))
+				return false;
+			final Key k = (Key) o;
+			return k.hash == hash && (k.rule == rule || k.rule.equals(rule)) && k.word.equals(word);
+		}
+	}
+
+	private final SegmentedCache<Key, Word> entries;
+
+	RuleCache(final int capacity) {
+		entries = new SegmentedCache<>(capacity);
+	}
+
+	public boolean isEnabled() {
+		return entries.isEnabled();
+	}
+
+	public Word get(final Rule rule, final Word word) {
+		if (!entries.isEnabled())
+			return null;
+		return entries.get(new Key(rule, word));
+	}
+
+	public void put(final Rule rule, final Word word, final Word result) {
+		if (!entries.isEnabled())
+			return;
+		// Words can still be added to, so the key keeps its own copy
+		entries.put(new Key(rule, word.copy()), result);
+	}
+
+	/**
+	 * Applies the rule to the word through the cache, recording the application
+	 * and the derivation in the trace if there is one.
+	 */
+	public Word apply(final PhoneManager pm, final Rule rule, final Word word, final RuleTrace trace) {
+		Word result = get(rule, word);
+		if (result != null) {
+			if (trace != null)
+				trace.recordCached(rule, word, result);
+		} else {
+			result = rule.transform(pm, word, trace);
+			put(rule, word, result);
+		}
+		if (trace != null && trace.isCapturingDerivations())
+			trace.recordDerivation(Arrays.asList(word, result));
+		return result;
+	}
+
+	/**
+	 * Sets the number of applications kept, evicting the least recently used
+	 * beyond it. A capacity of 0 disables the cache.
+	 */
+	public void setCapacity(final int capacity) {
+		entries.setCapacity(capacity);
+	}
+
+	public int getCapacity() {
+		return entries.getCapacity();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	public long getHits() {
+		return entries.getHits();
+	}
+
+	public long getMisses() {
+		return entries.getMisses();
+	}
+
+	public long getEvictions() {
+		return entries.getEvictions();
+	}
+}
@@ -0,0 +1,164 @@
+package main.phl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An opt-in record of rule applications, handed to the rules and cascades an
+ * interpreter applies while it is tracing. Every application of a rule adds to
+ * its counts of applications, positions tested, matches, rewritten words and
+ * nanoseconds spent, and each word may also be recorded after every rule.
+ * Applications answered by the rule cache or a stored derivation count as
+ * cached, without positions or time.
+ */
+public class RuleTrace {
+	public static class Stats {
+		private final Rule rule;
+		private final int order;
+		private final LongAdder applications = new LongAdder();
+		private final LongAdder cached = new LongAdder();
+		private final LongAdder tested = new LongAdder();
+		private final LongAdder matches = new LongAdder();
+		private final LongAdder rewrites = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+
+		private Stats(final Rule rule, final int order) {
+			this.rule = rule;
+			this.order = order;
+		}
+
+		public Rule getRule() {
+			return rule;
+		}
+
+		public long getApplications() {
+			return applications.sum();
+		}
+
+		public long getCached() {
+			return cached.sum();
+		}
+
+		public long getTested() {
+			return tested.sum();
+		}
+
+		public long getMatches() {
+			return matches.sum();
+		}
+
+		public long getRewrites() {
+			return rewrites.sum();
+		}
+
+		public long getNanos() {
+			return nanos.sum();
+		}
+	}
+
+	private final boolean derivations;
+	private final int maxDerivations;
+	// Rules are counted by identity, as equal rules may be declared apart
+	private final Map<Rule, Stats> stats = new IdentityHashMap<>();
+	private final List<List<Word>> derived = Collections.synchronizedList(new ArrayList<>());
+
+	/**
+	 * A trace keeping derivations up to the given number when asked for.
+	 */
+	public RuleTrace(final boolean derivations, final int maxDerivations) {
+		this.derivations = derivations;
+		this.maxDerivations = maxDerivations;
+	}
+
+	private Stats statsOf(final Rule rule) {
+		synchronized (stats) {
+			return stats.computeIfAbsent(rule, r -> new Stats(r, stats.size()));
+		}
+	}
+
+	void record(final Rule rule, final Word input, final Word output, final int tested, final int matches,
+			final long nanos) {
+		final Stats s = statsOf(rule);
+		s.applications.increment();
+		s.tested.add(tested);
+		s.matches.add(matches);
+		if (!same(input, output))
+			s.rewrites.increment();
+		s.nanos.add(nanos);
+	}
+
+	void recordCached(final Rule rule, final Word input, final Word output) {
+		final Stats s = statsOf(rule);
+		s.applications.increment();
+		s.cached.increment();
+		if (!same(input, output))
+			s.rewrites.increment();
+	}
+
+	private static boolean same(final Word a, final Word b) {
+		if (a == b)
+			return true;
+		if (a.size() != b.size())
+			return false;
+		for (int i = 0; i < a.size(); i++)
+			if (a.get(i) != b.get(i) || a.getDelim(i) != b.getDelim(i))
+				return false;
+		return true;
+	}
+
+	public boolean isCapturingDerivations() {
+		return derivations;
+	}
+
+	/**
+	 * Records a word followed by the word after each rule applied to it.
+	 */
+	public void recordDerivation(final List<Word> derivation) {
+		if (derivations && derived.size() < maxDerivations)
+			derived.add(derivation);
+	}
+
+	/**
+	 * The statistics of every rule applied, in order of first application.
+	 */
+	public List<Stats> getStats() {
+		final List<Stats> list;
+		synchronized (stats) {
+			list = new ArrayList<>(stats.values());
+		}
+		list.sort((a, b) -> Integer.compare(a.order, b.order));
+		return list;
+	}
+
+	public List<List<Word>> getDerivations() {
+		synchronized (derived) {
+			return new ArrayList<>(derived);
+		}
+	}
+
+	public String report() {
+		final StringBuilder s = new StringBuilder();
+		s.append(String.format("%5s %10s %10s %12s %10s %10s %12s  %s%n", "#", "applied", "cached", "tested",
+				"matches", "rewrites", "ms", "rule"));
+		int i = 1;
+		for (final Stats st : getStats())
+			s.append(String.format("%5d %10d %10d %12d %10d %10d %12.3f  %s%n", i++, st.getApplications(),
+					st.getCached(), st.getTested(), st.getMatches(), st.getRewrites(), st.getNanos() / 1e6,
+					st.rule));
+		if (derivations) {
+			for (final List<Word> derivation : getDerivations()) {
+				for (int j = 0; j < derivation.size(); j++) {
+					if (j > 0)
+						s.append(" > ");
+					s.append(derivation.get(j));
+				}
+				s.append(System.lineSeparator());
+			}
+		}
+		return s.toString();
+	}
+}
@@ -3,48 +3,55 @@ package main.phl;
 import java.util.List;
 
 public class SecondaryArticulation {
+	private final String name;
 	private final String segment;
 	private final Matrix matrix;
 	private final List<Matrix> requirements;
-	private final List<PhoneLoader.Secondary> restrictions;
+	private final List<String> restrictions;
+	private long restrictionMask = 0;
 
-	public SecondaryArticulation(final String segment, final Matrix matrix,
-			final List<PhoneLoader.Secondary> restrictions, final List<Matrix> requirements) {
+	public SecondaryArticulation(final String name, final String segment, final Matrix matrix,
+			final List<String> restrictions, final List<Matrix> requirements) {
+		this.name = name;
 		this.matrix = matrix;
 		this.restrictions = restrictions;
 		this.segment = segment;
 		this.requirements = requirements;
 	}
 
-	public SecondaryArticulation(final PhoneManager pm, final String segment, final int feature, final int value,
-			final List<PhoneLoader.Secondary> restrictions, final List<Matrix> requirements) {
-		this(segment, new Matrix(pm, new Feature(feature, value)), restrictions, requirements);
-	}
-
 	public Matrix getMatrix() {
 		return matrix;
 	}
 
-	public boolean canApply(final Matrix matrix, final List<PhoneLoader.Secondary> applied) {
-		for (int i = 0; i < restrictions.size(); i++)
-			if (applied.contains(restrictions.get(i)))
-				return false;
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * The names of the articulations this one cannot be combined with.
+	 */
+	public List<String> getRestrictions() {
+		return restrictions;
+	}
+
+	void setRestrictionMask(final long restrictionMask) {
+		this.restrictionMask = restrictionMask;
+	}
+
+	/**
+	 * Whether the articulation can apply to the matrix, given the bitmask of the
+	 * positions of the articulations already applied.
+	 */
+	public boolean canApply(final Matrix matrix, final long applied) {
+		if ((applied & restrictionMask) != 0)
+			return false;
 
 		if (requirements.isEmpty())
 			return true;
 
-		for (int i = 0; i < requirements.size(); i++) {
-			boolean flag = true;
-			final Matrix r = requirements.get(i);
-			for (final Feature feature : r) {
-				if (matrix.getQuality(feature.getKey()) != feature.getQuality()) {
-					flag = false;
-					break;
-				}
-			}
-			if (flag)
+		for (int i = 0; i < requirements.size(); i++)
+			if (matrix.matches(requirements.get(i)))
 				return true;
-		}
 
 		return false;
 	}
@@ -0,0 +1,93 @@
+package main.phl;
+
+import java.util.Arrays;
+
+/**
+ * A character trie over the base segments of a <code>PhoneManager</code>,
+ * mapping each one to its canonical phone. Nodes are only ever added, and a
+ * node's children are replaced as a whole, so lookups never lock.
+ */
+class SegmentTrie {
+	private static final class Node {
+		private final char key;
+		private volatile Node[] children = new Node[0];
+		private volatile Phone phone = null;
+
+		private Node(final char key) {
+			this.key = key;
+		}
+
+		private Node child(final char c) {
+			final Node[] nodes = children;
+			int low = 0;
+			int high = nodes.length - 1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				final char k = nodes[mid].key;
+				if (k < c)
+					low = mid + 1;
+				else if (k > c)
+					high = mid - 1;
+				else
+					return nodes[mid];
+			}
+			return null;
+		}
+
+		private Node addChild(final char c) {
+			final Node existing = child(c);
+			if (existing != null)
+				return existing;
+			final Node node = new Node(c);
+			final Node[] nodes = Arrays.copyOf(children, children.length + 1);
+			int i = nodes.length - 1;
+			while (i > 0 && nodes[i - 1].key > c) {
+				nodes[i] = nodes[i - 1];
+				i--;
+			}
+			nodes[i] = node;
+			children = nodes;
+			return node;
+		}
+	}
+
+	private final Node root = new Node('\0');
+
+	/**
+	 * Maps the segment to the phone, unless the segment is already mapped.
+	 * Returns whether the segment was added.
+	 */
+	synchronized boolean add(final String segment, final Phone phone) {
+		Node node = root;
+		for (int i = 0; i < segment.length(); i++)
+			node = node.addChild(segment.charAt(i));
+		if (node.phone != null)
+			return false;
+		node.phone = phone;
+		return true;
+	}
+
+	Phone get(final String segment) {
+		Node node = root;
+		for (int i = 0; i < segment.length() && node != null; i++)
+			node = node.child(segment.charAt(i));
+		return node == null ? null : node.phone;
+	}
+
+	/**
+	 * The end of the base segment starting at the given index: the first prefix
+	 * that is a base segment and is not followed by <code>_</code>. If no prefix
+	 * qualifies, the segment runs to the end of the string.
+	 */
+	int match(final String s, final int from) {
+		Node node = root;
+		for (int i = from; i < s.length(); i++) {
+			if (node.phone != null && s.charAt(i) != '_')
+				return i;
+			node = node.child(s.charAt(i));
+			if (node == null)
+				return s.length();
+		}
+		return s.length();
+	}
+}
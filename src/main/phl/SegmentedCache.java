@@ -0,0 +1,138 @@
+package main.phl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent, size-bounded map split into independently locked segments,
+ * each evicting its least recently used entry. Keys are expected to cache their
+ * hash codes. A capacity of 0 disables it, so nothing is kept and every lookup
+ * misses without being counted.
+ */
+final class SegmentedCache<K, V> {
+	private static final int SEGMENTS = 16;
+
+	private final class Segment extends LinkedHashMap<K, V> {
+		private static final long serialVersionUID = 1L;
+
+		private Segment() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+			if (size() <= perSegment)
+				return false;
+			evictions.increment();
+			return true;
+		}
+
+		private void trim() {
+			final Iterator<K> it = keySet().iterator();
+			while (size() > perSegment && it.hasNext()) {
+				it.next();
+				it.remove();
+				evictions.increment();
+			}
+		}
+	}
+
+	private final List<Segment> segments = new ArrayList<>(SEGMENTS);
+	private volatile int capacity;
+	private volatile int perSegment;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	SegmentedCache(final int capacity) {
+		for (int i = 0; i < SEGMENTS; i++)
+			segments.add(new Segment());
+		setCapacity(capacity);
+	}
+
+	private Segment segmentFor(final Object key) {
+		final int hash = key.hashCode();
+		final int h = hash ^ (hash >>> 16);
+		return segments.get(h & (SEGMENTS - 1));
+	}
+
+	boolean isEnabled() {
+		return capacity > 0;
+	}
+
+	V get(final K key) {
+		if (!isEnabled())
+			return null;
+		final Segment segment = segmentFor(key);
+		final V value;
+		synchronized (segment) {
+			value = segment.get(key);
+		}
+		if (value == null)
+			misses.increment();
+		else
+			hits.increment();
+		return value;
+	}
+
+	void put(final K key, final V value) {
+		if (!isEnabled())
+			return;
+		final Segment segment = segmentFor(key);
+		synchronized (segment) {
+			segment.put(key, value);
+		}
+	}
+
+	/**
+	 * Sets the number of entries kept, evicting the least recently used beyond
+	 * it.
+	 */
+	void setCapacity(final int capacity) {
+		this.capacity = Math.max(0, capacity);
+		this.perSegment = capacity <= 0 ? 0 : Math.max(1, capacity / SEGMENTS);
+		for (final Segment segment : segments) {
+			synchronized (segment) {
+				segment.trim();
+			}
+		}
+	}
+
+	int getCapacity() {
+		return capacity;
+	}
+
+	int size() {
+		int size = 0;
+		for (final Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	void clear() {
+		for (final Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	long getHits() {
+		return hits.sum();
+	}
+
+	long getMisses() {
+		return misses.sum();
+	}
+
+	long getEvictions() {
+		return evictions.sum();
+	}
+}
@@ -0,0 +1,101 @@
+package main.phl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Divides words into syllables by a sonority scale, a list of natural classes
+ * from least to most sonorous. A phone ranks with the most sonorous class it
+ * belongs to, and phones of the most sonorous class are nuclei. Consonants
+ * between two nuclei begin the second syllable for as long as sonority rises
+ * towards it, up to a maximum onset, and close the first otherwise. Morpheme
+ * boundaries are kept as they are, and no onset reaches back across one.
+ */
+public class Syllabifier {
+	private static final String[][] DEFAULT_SCALE = { { "-son", "-cont" }, { "-son", "+cont" },
+			{ "+son", "-approx" }, { "+approx", "+cons" }, { "+approx", "-cons", "-syl" }, { "+syl" } };
+
+	private final Matrix[] scale;
+	private final int maxOnset;
+	private final int minRise;
+
+	/**
+	 * @param maxOnset the most consonants an onset may take, or 0 for no limit
+	 * @param minRise  the least rise in rank between consecutive consonants of an
+	 *                 onset, 0 allowing plateaus
+	 */
+	public Syllabifier(final List<Matrix> scale, final int maxOnset, final int minRise) {
+		if (scale.isEmpty())
+			throw new IllegalArgumentException("A sonority scale needs at least one class");
+		this.scale = scale.toArray(new Matrix[0]);
+		this.maxOnset = maxOnset <= 0 ? Integer.MAX_VALUE : maxOnset;
+		this.minRise = minRise;
+	}
+
+	/**
+	 * Obstruent stops, fricatives, nasals, liquids, glides and syllabic phones,
+	 * leaving out features the data does not have.
+	 */
+	public static List<Matrix> defaultScale(final PhoneManager pm) {
+		final List<Matrix> scale = new ArrayList<>();
+		for (final String[] features : DEFAULT_SCALE) {
+			final List<Feature> entries = new ArrayList<>();
+			for (final String f : features) {
+				final Feature feature = pm.interpretFeature(f.charAt(0) + "|" + f.substring(1));
+				if (feature != null)
+					entries.add(feature);
+			}
+			if (!entries.isEmpty())
+				scale.add(new Matrix(pm, entries.toArray(new Feature[0])));
+		}
+		return scale;
+	}
+
+	private int rank(final Phone p) {
+		if (p == null)
+			return 0;
+		for (int i = scale.length - 1; i >= 0; i--)
+			if (p.hasFeatures(scale[i]))
+				return i + 1;
+		return 0;
+	}
+
+	public Word syllabify(final Word word) {
+		final int size = word.size();
+		final int nucleus = scale.length;
+		final int[] ranks = new int[size];
+		for (int i = 0; i < size; i++)
+			ranks[i] = rank(word.get(i));
+
+		final boolean[] boundaries = new boolean[size];
+		int last = -1;
+		for (int i = 0; i < size; i++) {
+			if (ranks[i] != nucleus)
+				continue;
+			if (last != -1) {
+				// Extend the onset back from the nucleus while sonority rises, up to
+				// the start of its morpheme
+				int start = i;
+				while (start - 1 > last && i - start < maxOnset && !word.isMorphemeBoundary(start)
+						&& ranks[start - 1] != nucleus
+						&& ranks[start] - ranks[start - 1] >= (start == i ? 1 : minRise))
+					start--;
+				boundaries[start] = true;
+			}
+			last = i;
+		}
+		return word.withSyllables(boundaries);
+	}
+
+	public Word[] syllabifyAll(final Word[] words) {
+		final Word[] results = new Word[words.length];
+		if (words.length < 2) {
+			for (int i = 0; i < words.length; i++)
+				results[i] = syllabify(words[i]);
+		} else {
+			IntStream.range(0, words.length).parallel().forEach(i -> results[i] = syllabify(words[i]));
+		}
+		return results;
+	}
+}
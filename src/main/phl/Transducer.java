@@ -0,0 +1,392 @@
+package main.phl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A run of rules that each rewrite one phone into one by a bounded window
+ * around it, composed into a single transducer read in one scan of the word.
+ * The rewritten phone at a position depends on at most the phones as far
+ * before and after it as the reaches of the rules added together, so the
+ * transducer is in the state of the last phones it read and writes each phone
+ * once it has read that far past it.
+ * <p>
+ * Phones are read by class rather than one by one: two phones are alike when
+ * every rule of the run matches them alike, and rewrites them into phones
+ * alike to the rules after it. States and transitions are built as words meet
+ * them, by applying the rules in turn to a window of phones standing for their
+ * classes. A transition keeps which rules rewrite the phone it writes, and the
+ * result of applying them to each phone is kept by phone id. Everything is
+ * dropped once a phone is attested, as searched rewrites may then resolve
+ * differently. Once there are too many states, words that would need another
+ * are interpreted instead.
+ */
+final class Transducer {
+	private static final int START = -1;
+	private static final int END = -2;
+	private static final int MAX_STATES = Integer.getInteger("sono.transducer.states", 1 << 16);
+
+	private static final class Window {
+		private final int[] symbols;
+		private final int hash;
+
+		private Window(final int[] symbols) {
+			this.symbols = symbols;
+			this.hash = Arrays.hashCode(symbols);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			return o instanceof Window && Arrays.equals(((Window) o).symbols, symbols);
+		}
+	}
+
+	private static final class Signature {
+		private final int stage;
+		private final long predicates;
+		private final int kept;
+		private final int rewritten;
+
+		private Signature(final int stage, final long predicates, final int kept, final int rewritten) {
+			this.stage = stage;
+			this.predicates = predicates;
+			this.kept = kept;
+			this.rewritten = rewritten;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((stage * 31 + Long.hashCode(predicates)) * 31 + kept) * 31 + rewritten;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Signature))
+				return false;
+			final Signature s = (Signature) o;
+			return s.stage == stage && s.predicates == predicates && s.kept == kept && s.rewritten == rewritten;
+		}
+	}
+
+	/**
+	 * The rules applied to a phone, and their results by phone id.
+	 */
+	private final class Program {
+		private final int[] stages;
+		private volatile Phone[] outputs = null;
+
+		private Program(final int[] stages) {
+			this.stages = stages;
+		}
+
+		private Phone apply(final Phone phone) {
+			if (stages.length == 0)
+				return phone;
+			final int id = phone.getId();
+			Phone[] table = outputs;
+			if (table != null && id >= 0 && id < table.length && table[id] != null)
+				return table[id];
+			Phone result = phone;
+			for (final int stage : stages)
+				result = rules[stage].rewrite(result);
+			if (id >= 0 && result != null) {
+				if (table == null) {
+					synchronized (this) {
+						if (outputs == null)
+							outputs = new Phone[pm.getPhoneCount()];
+						table = outputs;
+					}
+				}
+				// Phones are immutable, so a racing reader sees either nothing or
+				// the whole phone
+				if (id < table.length)
+					table[id] = result;
+			}
+			return result;
+		}
+	}
+
+	private static final class Transition {
+		private final State next;
+		// null until the first phone is read far enough past
+		private final Program program;
+
+		private Transition(final State next, final Program program) {
+			this.next = next;
+			this.program = program;
+		}
+	}
+
+	/**
+	 * Transitions by the symbol read, open-addressed and never changed once
+	 * published.
+	 */
+	private static final class Table {
+		private static final Table EMPTY = new Table(new int[0], new Transition[0]);
+
+		private final int[] symbols;
+		private final Transition[] transitions;
+
+		private Table(final int[] symbols, final Transition[] transitions) {
+			this.symbols = symbols;
+			this.transitions = transitions;
+		}
+
+		private static int slot(final int symbol, final int mask) {
+			return (symbol * 0x9E3779B9 >>> 16) & mask;
+		}
+
+		private Transition get(final int symbol) {
+			if (transitions.length == 0)
+				return null;
+			final int mask = transitions.length - 1;
+			for (int i = slot(symbol, mask);; i = (i + 1) & mask) {
+				if (transitions[i] == null)
+					return null;
+				if (symbols[i] == symbol)
+					return transitions[i];
+			}
+		}
+
+		private Table with(final int symbol, final Transition transition) {
+			int count = 1;
+			for (final Transition t : transitions)
+				if (t != null)
+					count++;
+			int capacity = 4;
+			while (count * 2 > capacity)
+				capacity *= 2;
+			final Table table = new Table(new int[capacity], new Transition[capacity]);
+			for (int i = 0; i < transitions.length; i++)
+				if (transitions[i] != null)
+					table.insert(symbols[i], transitions[i]);
+			table.insert(symbol, transition);
+			return table;
+		}
+
+		private void insert(final int symbol, final Transition transition) {
+			final int mask = transitions.length - 1;
+			int i = slot(symbol, mask);
+			while (transitions[i] != null)
+				i = (i + 1) & mask;
+			symbols[i] = symbol;
+			transitions[i] = transition;
+		}
+	}
+
+	/**
+	 * The last symbols read, and the transitions on to the next.
+	 */
+	private static final class State {
+		private final int[] window;
+		private volatile Table table = Table.EMPTY;
+
+		private State(final int[] window) {
+			this.window = window;
+		}
+
+		private Transition get(final int symbol) {
+			return table.get(symbol);
+		}
+	}
+
+	/**
+	 * The states, classes and programs built for one inventory.
+	 */
+	private final class Machine {
+		private final int phoneCount;
+		private final State start;
+		private final Map<Window, State> states = new HashMap<>();
+		private final Map<Window, Program> programs = new HashMap<>();
+		private final Map<Signature, Integer> signatures = new HashMap<>();
+		private final List<Map<Phone, Integer>> memos = new ArrayList<>();
+		// A phone of each class, by its signature before the first rule
+		private final Map<Integer, Phone> representatives = new HashMap<>();
+		// Classes of attested phones by id, plus one so 0 is unknown
+		private final int[] classes;
+		private volatile boolean full = false;
+
+		private Machine(final int phoneCount) {
+			this.phoneCount = phoneCount;
+			this.classes = new int[phoneCount];
+			for (int i = 0; i < rules.length; i++)
+				memos.add(new HashMap<>());
+			final int[] window = new int[left + right];
+			Arrays.fill(window, START);
+			start = state(window);
+		}
+
+		private int classOf(final Phone phone) {
+			final int id = phone.getId();
+			if (id >= 0 && id < classes.length) {
+				final int c = classes[id];
+				if (c != 0)
+					return c - 1;
+			}
+			synchronized (this) {
+				final int c = signature(0, phone);
+				representatives.putIfAbsent(c, phone);
+				if (id >= 0 && id < classes.length)
+					classes[id] = c + 1;
+				return c;
+			}
+		}
+
+		/**
+		 * Numbers the phone by how the rules from the stage on treat it: which of
+		 * the search and contexts of the rule at the stage it matches, and how the
+		 * rules after treat it whether or not it is rewritten.
+		 */
+		private int signature(final int stage, final Phone phone) {
+			if (stage == rules.length)
+				return 0;
+			final Map<Phone, Integer> memo = memos.get(stage);
+			final Integer known = memo.get(phone);
+			if (known != null)
+				return known;
+			final long predicates = rules[stage].predicates(pm, phone);
+			final int kept = signature(stage + 1, phone);
+			final int rewritten = signature(stage + 1, rules[stage].rewrite(phone));
+			final Signature s = new Signature(stage, predicates, kept, rewritten);
+			Integer id = signatures.get(s);
+			if (id == null) {
+				id = signatures.size() + 1;
+				signatures.put(s, id);
+			}
+			memo.put(phone, id);
+			return id;
+		}
+
+		private State state(final int[] window) {
+			final Window key = new Window(window);
+			State s = states.get(key);
+			if (s == null) {
+				s = new State(window);
+				states.put(key, s);
+				if (states.size() > MAX_STATES)
+					full = true;
+			}
+			return s;
+		}
+
+		private synchronized Transition transition(final State from, final int symbol) {
+			Transition t = from.get(symbol);
+			if (t != null)
+				return t;
+			final int[] window = Arrays.copyOf(from.window, left + right + 1);
+			window[left + right] = symbol;
+			final State next = state(Arrays.copyOfRange(window, 1, window.length));
+			t = new Transition(next, window[left] == START ? null : program(window));
+			from.table = from.table.with(symbol, t);
+			return t;
+		}
+
+		/**
+		 * Applies the rules in turn to phones standing for the classes of the
+		 * window, noting which rewrite its centre.
+		 */
+		private Program program(final int[] window) {
+			final Word.Builder builder = new Word.Builder(window.length);
+			int target = left;
+			for (final int symbol : window) {
+				if (symbol == START) {
+					target--;
+				} else if (symbol != END) {
+					builder.add(representatives.get(symbol >> 2));
+					builder.addDelim((byte) (symbol & 3));
+				}
+			}
+			Word w = builder.build();
+			final int[] fired = new int[rules.length];
+			int count = 0;
+			for (int k = 0; k < rules.length; k++) {
+				if (rules[k].matchesAt(pm, w, target))
+					fired[count++] = k;
+				w = rules[k].transform(pm, w);
+			}
+			final int[] stages = Arrays.copyOf(fired, count);
+			return programs.computeIfAbsent(new Window(stages), key -> new Program(stages));
+		}
+	}
+
+	private final PhoneManager pm;
+	private final Rule[] rules;
+	private final int left;
+	private final int right;
+	private volatile Machine machine = null;
+
+	Transducer(final PhoneManager pm, final List<Rule> rules) {
+		this.pm = pm;
+		this.rules = rules.toArray(new Rule[0]);
+		int l = 0;
+		int r = 0;
+		for (final Rule rule : this.rules) {
+			l += rule.getLeftReach();
+			r += rule.getRightReach();
+		}
+		this.left = l;
+		this.right = r;
+	}
+
+	/**
+	 * The number of phones either side of a phone its rewrite depends on.
+	 */
+	static int width(final Rule rule) {
+		return rule.getLeftReach() + rule.getRightReach();
+	}
+
+	int size() {
+		return rules.length;
+	}
+
+	Word apply(final Word word) {
+		final int n = word.size();
+		if (n == 0)
+			return word;
+		if (!word.isAligned())
+			return interpret(word);
+		for (int i = 0; i < n; i++)
+			if (word.get(i) == null)
+				return interpret(word);
+
+		final int count = pm.getPhoneCount();
+		Machine m = machine;
+		if (m == null || m.phoneCount != count) {
+			m = new Machine(count);
+			machine = m;
+		}
+		final Word.Builder result = new Word.Builder(n);
+		State state = m.start;
+		for (int q = 0; q < n + right; q++) {
+			final int symbol = q < n ? m.classOf(word.get(q)) << 2 | word.delimAt(q) : END;
+			Transition t = state.get(symbol);
+			if (t == null) {
+				if (m.full)
+					return interpret(word);
+				t = m.transition(state, symbol);
+			}
+			if (t.program != null) {
+				final int p = q - right;
+				result.add(t.program.apply(word.get(p)));
+				result.addDelim(word.delimAt(p));
+			}
+			state = t.next;
+		}
+		return result.build();
+	}
+
+	private Word interpret(final Word word) {
+		Word result = word;
+		for (final Rule rule : rules)
+			result = rule.transform(pm, result);
+		return result;
+	}
+}
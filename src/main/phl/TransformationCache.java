@@ -0,0 +1,74 @@
+package main.phl;
+
+/**
+ * A concurrent, size-bounded cache of phone transformations, keyed by the
+ * phone, the transforming matrix and whether the result was searched for.
+ * Attested, fuzzy and unattested results are all kept, in a
+ * {@link SegmentedCache} evicting the least recently used.
+ */
+public class TransformationCache {
+	private static final class Key {
+		private final Phone phone;
+		private final boolean search;
+		private final Matrix matrix;
+		private final int hash;
+
+		private Key(final Phone phone, final boolean search, final Matrix matrix) {
+			this.phone = phone;
+			this.search = search;
+			this.matrix = matrix;
+			this.hash = (31 * phone.hashCode() + matrix.hashCode()) * 2 + (search ? 1 : 0);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (o == this)
+				return true;
+			if (!(o instanceof Key))
+				return false;
+			final Key k = (Key) o;
+			return k.hash == hash && k.phone.equals(phone) && k.search == search && k.matrix.equals(matrix);
+		}
+	}
+
+	private final PhoneManager pm;
+	private final SegmentedCache<Key, Phone> entries;
+
+	TransformationCache(final PhoneManager pm, final int capacity) {
+		this.pm = pm;
+		entries = new SegmentedCache<>(capacity);
+	}
+
+	public Phone get(final Phone phone, final Matrix matrix, final boolean search) {
+		return entries.get(new Key(phone, search, matrix));
+	}
+
+	public void put(final Phone phone, final Matrix matrix, final boolean search, final Phone result) {
+		entries.put(new Key(phone, search, new Matrix(pm, matrix)), result);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	public long getHits() {
+		return entries.getHits();
+	}
+
+	public long getMisses() {
+		return entries.getMisses();
+	}
+
+	public long getEvictions() {
+		return entries.getEvictions();
+	}
+}
@@ -1,6 +1,6 @@
 package main.phl;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class Word {
@@ -25,61 +25,450 @@ public class Word {
 		}
 	}
 
-	private final List<Phone> phones;
-	private final List<SyllableDelim> delimits;
+	private static final SyllableDelim[] DELIMS = { SyllableDelim.NULL, SyllableDelim.DELIM, null,
+			SyllableDelim.MORPHEME };
+	// Delimiters are stored as flags, bit 0 marking a syllable boundary and bit 1
+	// a morpheme boundary, which is also one between syllables
+	static final byte NULL = 0;
+	static final byte SYLLABLE = 1;
+	static final byte MORPHEME = 3;
+	// Concatenations at most this long are copied rather than shared
+	private static final int CHUNK = 64;
+
+	/**
+	 * A balanced tree of slices of packed arrays, standing for their
+	 * concatenation. The arrays of a word are never written once set, so ropes
+	 * share them with the words they were built from.
+	 */
+	private static final class Rope {
+		private static final Rope EMPTY = new Rope(new Phone[0], 0, 0, new byte[0], 0, 0);
+
+		private final Rope left;
+		private final Rope right;
+		// Set on leaves only
+		private final Phone[] phones;
+		private final int phoneOffset;
+		private final byte[] delims;
+		private final int delimOffset;
+		private final int size;
+		private final int delimCount;
+		private final int depth;
+
+		private Rope(final Phone[] phones, final int phoneOffset, final int size, final byte[] delims,
+				final int delimOffset, final int delimCount) {
+			this.left = null;
+			this.right = null;
+			this.phones = phones;
+			this.phoneOffset = phoneOffset;
+			this.delims = delims;
+			this.delimOffset = delimOffset;
+			this.size = size;
+			this.delimCount = delimCount;
+			this.depth = 0;
+		}
+
+		private Rope(final Rope left, final Rope right) {
+			this.left = left;
+			this.right = right;
+			this.phones = null;
+			this.phoneOffset = 0;
+			this.delims = null;
+			this.delimOffset = 0;
+			this.size = left.size + right.size;
+			this.delimCount = left.delimCount + right.delimCount;
+			this.depth = 1 + Math.max(left.depth, right.depth);
+		}
+
+		private boolean isEmpty() {
+			return size == 0 && delimCount == 0;
+		}
+
+		private void copyInto(final Phone[] p, final int pi, final byte[] d, final int di) {
+			if (left == null) {
+				System.arraycopy(phones, phoneOffset, p, pi, size);
+				System.arraycopy(delims, delimOffset, d, di, delimCount);
+			} else {
+				left.copyInto(p, pi, d, di);
+				right.copyInto(p, pi + left.size, d, di + left.delimCount);
+			}
+		}
+
+		/**
+		 * The phones and delimiters in the given ranges, counted separately as a
+		 * word built by a rule may hold more or fewer delimiters than phones.
+		 */
+		private Rope slice(final int pFrom, final int pTo, final int dFrom, final int dTo) {
+			if (pFrom == pTo && dFrom == dTo)
+				return EMPTY;
+			if (pFrom == 0 && pTo == size && dFrom == 0 && dTo == delimCount)
+				return this;
+			if (left == null)
+				return new Rope(phones, phoneOffset + pFrom, pTo - pFrom, delims, delimOffset + dFrom, dTo - dFrom);
+			// Only children overlapping the ranges are visited, so a slice follows
+			// at most two paths down the rope
+			final int pl = left.size;
+			final int dl = left.delimCount;
+			if (pTo <= pl && dTo <= dl)
+				return left.slice(pFrom, pTo, dFrom, dTo);
+			if (pFrom >= pl && dFrom >= dl)
+				return right.slice(pFrom - pl, pTo - pl, dFrom - dl, dTo - dl);
+			return concat(left.slice(Math.min(pFrom, pl), Math.min(pTo, pl), Math.min(dFrom, dl), Math.min(dTo, dl)),
+					right.slice(Math.max(pFrom - pl, 0), Math.max(pTo - pl, 0), Math.max(dFrom - dl, 0),
+							Math.max(dTo - dl, 0)));
+		}
+
+		private static Rope concat(final Rope a, final Rope b) {
+			if (b.isEmpty())
+				return a;
+			if (a.isEmpty())
+				return b;
+			if (a.size + b.size <= CHUNK && a.delimCount + b.delimCount <= CHUNK)
+				return a.pack(b);
+			return join(a, b);
+		}
+
+		/**
+		 * Joins two balanced ropes into one, descending the deeper along its
+		 * inner edge to a subtree as deep as the other and rotating on the way
+		 * back up, so the cost grows with the difference in depth.
+		 */
+		private static Rope join(final Rope a, final Rope b) {
+			if (a.depth > b.depth + 1)
+				return node(a.left, join(a.right, b));
+			if (b.depth > a.depth + 1)
+				return node(join(a, b.left), b.right);
+			// Neighbouring short leaves are packed instead of deepening the rope
+			if (a.left == null && b.left == null && a.size + b.size <= CHUNK
+					&& a.delimCount + b.delimCount <= CHUNK)
+				return a.pack(b);
+			return new Rope(a, b);
+		}
+
+		/**
+		 * A node over two balanced ropes differing in depth by at most two,
+		 * rotated to differ by at most one.
+		 */
+		private static Rope node(final Rope l, final Rope r) {
+			if (r.depth > l.depth + 1) {
+				if (r.left.depth > r.right.depth)
+					return new Rope(new Rope(l, r.left.left), new Rope(r.left.right, r.right));
+				return new Rope(new Rope(l, r.left), r.right);
+			}
+			if (l.depth > r.depth + 1) {
+				if (l.right.depth > l.left.depth)
+					return new Rope(new Rope(l.left, l.right.left), new Rope(l.right.right, r));
+				return new Rope(l.left, new Rope(l.right, r));
+			}
+			return new Rope(l, r);
+		}
+
+		private Rope pack(final Rope next) {
+			final Phone[] p = new Phone[size + next.size];
+			final byte[] d = new byte[delimCount + next.delimCount];
+			copyInto(p, 0, d, 0);
+			next.copyInto(p, size, d, delimCount);
+			return new Rope(p, 0, p.length, d, 0, d.length);
+		}
+	}
+
+	/**
+	 * The packed arrays of a word filled a phone and a delimiter at a time, each
+	 * growing as needed and only trimmed if left longer than filled.
+	 */
+	static final class Builder {
+		private Phone[] phones;
+		private byte[] delims;
+		private int size = 0;
+		private int delimCount = 0;
+
+		Builder(final int capacity) {
+			phones = new Phone[capacity];
+			delims = new byte[capacity];
+		}
+
+		void add(final Phone p) {
+			if (size == phones.length)
+				phones = Arrays.copyOf(phones, size * 2 + 1);
+			phones[size++] = p;
+		}
+
+		void addDelim(final byte d) {
+			if (delimCount == delims.length)
+				delims = Arrays.copyOf(delims, delimCount * 2 + 1);
+			delims[delimCount++] = d;
+		}
+
+		void removeLast() {
+			size--;
+		}
+
+		void removeLastDelim() {
+			delimCount--;
+		}
+
+		int size() {
+			return size;
+		}
+
+		int delimCount() {
+			return delimCount;
+		}
+
+		Word build() {
+			return new Word(size == phones.length ? phones : Arrays.copyOf(phones, size),
+					delimCount == delims.length ? delims : Arrays.copyOf(delims, delimCount));
+		}
+	}
+
+	// The delimiter before each phone; a word built by a rule may hold more or
+	// fewer delimiters than phones. Both are null while the word is a rope.
+	private Phone[] phones;
+	private byte[] delims;
+	// Set while the word is a concatenation not yet needed packed
+	private volatile Rope rope = null;
+	private int size;
+	// Computed on first use and dropped whenever the word changes, 0 until then
+	private int hash = 0;
+	// Built on first use and dropped whenever the phones change
+	private WordIndex index = null;
 
 	public Word() {
-		this.phones = new ArrayList<>();
-		this.delimits = new ArrayList<>();
+		this(new Phone[0], new byte[0]);
 	}
 
 	public Word(final List<Phone> phones, final List<SyllableDelim> delimits) {
+		final byte[] d = new byte[delimits.size()];
+		for (int i = 0; i < d.length; i++)
+			d[i] = code(delimits.get(i));
+		this.phones = phones.toArray(new Phone[0]);
+		this.delims = d;
+		this.size = this.phones.length;
+	}
+
+	private Word(final Phone[] phones, final byte[] delims) {
 		this.phones = phones;
-		this.delimits = delimits;
+		this.delims = delims;
+		this.size = phones.length;
+	}
+
+	private Word(final Rope rope) {
+		if (rope.left == null && rope.phoneOffset == 0 && rope.phones.length == rope.size
+				&& rope.delimOffset == 0 && rope.delims.length == rope.delimCount) {
+			this.phones = rope.phones;
+			this.delims = rope.delims;
+		} else {
+			this.rope = rope;
+		}
+		this.size = rope.size;
+	}
+
+	private static byte code(final SyllableDelim delim) {
+		switch (delim) {
+			case DELIM:
+				return SYLLABLE;
+			case MORPHEME:
+				return MORPHEME;
+			default:
+				return NULL;
+		}
+	}
+
+	/**
+	 * The phones and delimiters of the first word followed by those of the
+	 * second. Long words share their contents with the result rather than being
+	 * copied, and are only packed again once read by position.
+	 */
+	public static Word concat(final Word a, final Word b) {
+		return new Word(Rope.concat(a.toRope(), b.toRope()));
+	}
+
+	/**
+	 * The phones from one index up to another, each with the delimiter before
+	 * it, sharing the contents of long words.
+	 */
+	public Word subword(final int from, final int to) {
+		if (from < 0 || to > size || from > to)
+			throw new IndexOutOfBoundsException("Subword [" + from + ", " + to + ") of word of length " + size);
+		final Rope r = toRope();
+		return new Word(r.slice(from, to, Math.min(from, r.delimCount), Math.min(to, r.delimCount)));
+	}
+
+	private Rope toRope() {
+		final Rope r = rope;
+		if (r != null)
+			return r;
+		return new Rope(phones, 0, phones.length, delims, 0, delims.length);
+	}
+
+	private void flatten() {
+		synchronized (this) {
+			final Rope r = rope;
+			if (r == null)
+				return;
+			final Phone[] p = new Phone[r.size];
+			final byte[] d = new byte[r.delimCount];
+			r.copyInto(p, 0, d, 0);
+			phones = p;
+			delims = d;
+			rope = null;
+		}
+	}
+
+	private Phone[] phones() {
+		if (rope != null)
+			flatten();
+		return phones;
+	}
+
+	private byte[] delims() {
+		if (rope != null)
+			flatten();
+		return delims;
 	}
 
 	public void add(final Phone p) {
-		this.phones.add(p);
+		final Phone[] added = Arrays.copyOf(phones(), size + 1);
+		added[size] = p;
+		this.phones = added;
+		this.size++;
+		changed();
 	}
 
 	public void remove(final int i) {
-		this.phones.remove(i);
+		final Phone[] removed = new Phone[size - 1];
+		System.arraycopy(phones(), 0, removed, 0, i);
+		System.arraycopy(phones, i + 1, removed, i, removed.length - i);
+		this.phones = removed;
+		this.size--;
+		changed();
 	}
 
 	public void addAll(final Word w) {
-		this.phones.addAll(w.phones);
-		this.delimits.addAll(w.delimits);
+		final Phone[] p = Arrays.copyOf(phones(), size + w.size);
+		System.arraycopy(w.phones(), 0, p, size, w.size);
+		final byte[] d = Arrays.copyOf(delims(), delims.length + w.delims().length);
+		System.arraycopy(w.delims, 0, d, delims.length, w.delims.length);
+		this.phones = p;
+		this.delims = d;
+		this.size = p.length;
+		changed();
+	}
+
+	private void changed() {
+		this.hash = 0;
+		this.index = null;
+	}
+
+	Word copy() {
+		final Word w = new Word(phones().clone(), delims().clone());
+		w.hash = hash;
+		return w;
+	}
+
+	/**
+	 * The word with a syllable boundary before each flagged phone, keeping its
+	 * morpheme boundaries in place of its other delimiters.
+	 */
+	Word withSyllables(final boolean[] boundaries) {
+		final byte[] old = delims();
+		final byte[] d = new byte[size];
+		for (int i = 0; i < size; i++) {
+			if (i < old.length && old[i] == MORPHEME)
+				d[i] = MORPHEME;
+			else if (boundaries[i])
+				d[i] = SYLLABLE;
+		}
+		return new Word(phones, d);
+	}
+
+	WordIndex getIndex(final PhoneManager pm) {
+		WordIndex i = index;
+		if (i == null) {
+			i = new WordIndex(pm, this);
+			index = i;
+		}
+		return i;
+	}
+
+	/**
+	 * Whether the word holds exactly one delimiter per phone, as a rule that does
+	 * not apply would rebuild it.
+	 */
+	boolean isAligned() {
+		return delims().length == size;
 	}
 
 	public int size() {
-		return this.phones.size();
+		return size;
 	}
 
 	public Phone get(final int i) {
-		if (i < this.phones.size() && i >= 0)
-			return this.phones.get(i);
+		if (i < size && i >= 0)
+			return phones()[i];
 		return null;
 	}
 
 	public SyllableDelim getDelim(final int i) {
-		if (i < this.delimits.size() && i >= 0)
-			return this.delimits.get(i);
+		final byte[] d = delims();
+		if (i < d.length && i >= 0)
+			return DELIMS[d[i]];
 		return SyllableDelim.NULL;
 	}
 
+	/**
+	 * The flags of the delimiter at the index, {@link #NULL} past the end.
+	 */
+	byte delimAt(final int i) {
+		final byte[] d = delims();
+		return i < d.length && i >= 0 ? d[i] : NULL;
+	}
+
+	/**
+	 * Whether a syllable or morpheme boundary precedes the phone at the index.
+	 */
+	boolean isSyllableBoundary(final int i) {
+		final byte[] d = delims();
+		return i < d.length && i >= 0 && (d[i] & SYLLABLE) != 0;
+	}
+
+	/**
+	 * Whether a morpheme boundary precedes the phone at the index.
+	 */
+	boolean isMorphemeBoundary(final int i) {
+		final byte[] d = delims();
+		return i < d.length && i >= 0 && d[i] == MORPHEME;
+	}
+
 	@Override
 	public String toString() {
+		final Phone[] p = phones();
+		final byte[] d = delims;
 		final StringBuilder s = new StringBuilder();
-		for (int i = 0; i < phones.size(); i++) {
-			s.append(delimits.get(i).toString());
-			s.append(phones.get(i).toString());
+		for (int i = 0; i < p.length; i++) {
+			s.append(DELIMS[d[i]].toString());
+			s.append(p[i].toString());
 		}
 		return s.toString();
 	}
 
+	/**
+	 * A hash of the phones and of the delimiter before each, consistent with
+	 * <code>equals</code>. Computed once until the word changes.
+	 */
 	@Override
 	public int hashCode() {
-		return 1;
+		int h = hash;
+		if (h == 0) {
+			final Phone[] p = phones();
+			final byte[] d = delims;
+			h = 1;
+			for (int i = 0; i < p.length; i++) {
+				h = 31 * h + (p[i] == null ? 0 : p[i].hashCode());
+				h = 31 * h + (i < d.length ? d[i] : NULL);
+			}
+			hash = h;
+		}
+		return h;
 	}
 
 	@Override
@@ -91,12 +480,16 @@ public class Word {
 		if (o.getClass() != this.getClass())
 			return false;
 		final Word w = (Word) o;
-		if (w.size() != this.size())
+		if (w.size != size)
+			return false;
+		if (w.hash != 0 && hash != 0 && w.hash != hash)
 			return false;
-		for (int i = 0; i < this.size(); i++) {
-			if (!w.get(i).equals(this.get(i)))
+		final Phone[] p = phones();
+		final Phone[] q = w.phones();
+		for (int i = 0; i < size; i++) {
+			if (!q[i].equals(p[i]))
 				return false;
-			if (!w.getDelim(i).equals(this.getDelim(i)))
+			if (w.getDelim(i) != getDelim(i))
 				return false;
 		}
 		return true;
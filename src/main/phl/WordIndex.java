@@ -0,0 +1,102 @@
+package main.phl;
+
+/**
+ * A summary of the phones of a word: which <code>+</code> and <code>-</code>
+ * features occur anywhere in it, and for each feature the positions holding
+ * it. Rules consult it to skip words they cannot apply to and to find the
+ * positions their search may match.
+ */
+class WordIndex {
+	private final int size;
+	private final int positionWords;
+	// Per feature word, the features some phone has as + and as -
+	private final long[] positive;
+	private final long[] negative;
+	// [slot] -> positions of the phones with the feature as + or -, null if none
+	private final long[][] plus;
+	private final long[][] minus;
+
+	WordIndex(final PhoneManager pm, final Word word) {
+		final int slots = pm.getFeatureNames().size();
+		final int words = (slots + 63) >>> 6;
+		this.size = word.size();
+		this.positionWords = (size + 63) >>> 6;
+		this.positive = new long[words];
+		this.negative = new long[words];
+		this.plus = new long[slots][];
+		this.minus = new long[slots][];
+		for (int i = 0; i < size; i++) {
+			final Phone p = word.get(i);
+			if (p == null)
+				continue;
+			final Matrix m = p.getFeatures();
+			for (int w = 0; w < words; w++) {
+				final long plain = m.getSpecifiedWord(w) & ~m.getExtendedWord(w);
+				positive[w] |= plain & m.getValueWord(w);
+				negative[w] |= plain & ~m.getValueWord(w);
+				long bits = plain;
+				while (bits != 0) {
+					final int slot = (w << 6) + Long.numberOfTrailingZeros(bits);
+					bits &= bits - 1;
+					final long[][] target = (m.getValueWord(w) & (1L << slot)) != 0 ? plus : minus;
+					if (target[slot] == null)
+						target[slot] = new long[positionWords];
+					target[slot][i >>> 6] |= 1L << i;
+				}
+			}
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Whether every required <code>+</code> and <code>-</code> feature occurs
+	 * somewhere in the word.
+	 */
+	boolean mayContain(final long[] requiredPositive, final long[] requiredNegative) {
+		for (int w = 0; w < positive.length; w++)
+			if ((requiredPositive[w] & ~positive[w]) != 0 || (requiredNegative[w] & ~negative[w]) != 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * The positions whose phones have every required feature.
+	 */
+	long[] candidates(final long[] requiredPositive, final long[] requiredNegative) {
+		final long[] result = new long[positionWords];
+		for (int i = 0; i < positionWords; i++)
+			result[i] = -1L;
+		if ((size & 63) != 0)
+			result[positionWords - 1] = (1L << size) - 1;
+		restrict(result, requiredPositive, plus);
+		restrict(result, requiredNegative, minus);
+		return result;
+	}
+
+	private static void restrict(final long[] result, final long[] required, final long[][] positions) {
+		for (int w = 0; w < required.length; w++) {
+			long bits = required[w];
+			while (bits != 0) {
+				final int slot = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				final long[] set = positions[slot];
+				for (int i = 0; i < result.length; i++)
+					result[i] &= set == null ? 0 : set[i];
+			}
+		}
+	}
+
+	static boolean contains(final long[] positions, final int i) {
+		return (positions[i >>> 6] & (1L << i)) != 0;
+	}
+
+	static boolean isEmpty(final long[] positions) {
+		for (final long word : positions)
+			if (word != 0)
+				return false;
+		return true;
+	}
+}
@@ -352,9 +352,7 @@ public class Datum {
 				this.valuePointer = null;
 				this.valueDictionary = null;
 
-				this.valueMatrix = new Matrix(pm);
-				for (final Feature p : datum.valueMatrix)
-					this.valueMatrix.put(p.getKey(), p.getQuality());
+				this.valueMatrix = new Matrix(pm, datum.valueMatrix);
 				break;
 			case FEATURE:
 				this.valueVector = null;
@@ -705,17 +703,18 @@ public class Datum {
 			case MATRIX:
 				return valueMatrix.hashCode();
 			case NUMBER:
-				return String.valueOf(valueNumber).hashCode();
+				// 0.0 and -0.0 are equal
+				return Double.hashCode(valueNumber == 0 ? 0 : valueNumber);
 			case BOOL:
 				return Boolean.hashCode(valueBool);
 			case FEATURE:
-				return valueFeature.toString().hashCode();
+				return valueFeature.hashCode();
 			case PHONE:
-				return valuePhone.toString().hashCode();
+				return valuePhone.hashCode();
 			case POINTER:
 				return valuePointer.hashCode();
 			case RULE:
-				return valueRule.toString().hashCode();
+				return valueRule.hashCode();
 			case STRING:
 				return valueString.hashCode();
 			case STRUCTURE:
@@ -730,7 +729,7 @@ public class Datum {
 			case DICTIONARY:
 				return valueDictionary.hashCode();
 			case WORD:
-				return valueWord.toString().hashCode();
+				return valueWord.hashCode();
 			default:
 				return 1;
 		}
@@ -15,9 +15,11 @@ import main.base.CommandManager;
 import main.base.ConsoleColors;
 import main.phl.Hasher;
 import main.phl.Feature;
+import main.phl.Matrix;
 import main.phl.Phone;
 import main.phl.PhoneManager;
 import main.phl.Rule;
+import main.phl.RuleTrace;
 import main.phl.Word;
 import main.SonoWrapper;
 import main.sono.err.SonoCompilationException;
@@ -120,6 +122,7 @@ public class Interpreter {
 	private final Input stdin;
 
 	private final List<String> loadedFiles;
+	private volatile RuleTrace trace = null;
 
 	public final int INIT;
 	public final int THIS;
@@ -864,6 +867,41 @@ public class Interpreter {
 		return this.pl;
 	}
 
+	/**
+	 * The trace rules applied by this interpreter are recorded in, or
+	 * <code>null</code> when it is not tracing.
+	 */
+	public RuleTrace getTrace() {
+		return this.trace;
+	}
+
+	public void setTrace(final RuleTrace trace) {
+		this.trace = trace;
+	}
+
+	/**
+	 * In a lazy inventory, derives the variants a natural class may need and
+	 * brings <code>_all</code> up to date with every phone attested so far. Bases
+	 * already expanded are skipped, and <code>_all</code> is only rebuilt when
+	 * phones have been attested since it was last set.
+	 */
+	public void deriveVariants(final Matrix matrix, final Token line, final Object[] overrides)
+			throws InterruptedException {
+		if (pl == null || !pl.isLazy())
+			return;
+		pl.derive(matrix);
+		final Datum all = main.getVariable(ALL, this, line, overrides);
+		if (pl.getPhoneCount() == all.getVectorLength(line, overrides))
+			return;
+		final List<Phone> phones = pl.getAllPhones();
+		final Datum[] data = new Datum[phones.size()];
+		for (int i = 0; i < data.length; i++)
+			data[i] = new Datum(phones.get(i));
+		all.setMutable(true);
+		main.setVariable(this, ALL, new Datum(data), line, overrides);
+		all.setMutable(false);
+	}
+
 	public CommandManager getCommandManager() {
 		return this.console;
 	}
@@ -33,10 +33,7 @@ public class Add extends Binary {
 				newMatrix.putAll(datumB.getMatrix(line, overrides));
 				return new Datum(newMatrix);
 			case WORD:
-				final Word newWord = new Word();
-				newWord.addAll(datumA.getWord(line, overrides));
-				newWord.addAll(datumB.getWord(line, overrides));
-				return new Datum(newWord);
+				return new Datum(Word.concat(datumA.getWord(line, overrides), datumB.getWord(line, overrides)));
 			case STRING:
 				return new Datum(datumA.getString(line, overrides) + datumB.getString(line, overrides));
 			default:
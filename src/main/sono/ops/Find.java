@@ -20,6 +20,7 @@ public class Find extends Binary {
 	public Datum evaluate(final Scope scope, final Object[] overrides) throws InterruptedException {
 		checkInterrupted();
 		final Matrix matrix = a.evaluate(scope, overrides).getMatrix(line, overrides);
+		interpreter.deriveVariants(matrix, line, overrides);
 		final Datum datumB = b.evaluate(scope, overrides);
 		final int dataSize = datumB.getVectorLength(line, overrides);
 		final List<Phone> phones = new ArrayList<>();
@@ -29,7 +29,9 @@ public class Register extends Binary {
 		for (int i = 0; i < oldVSize; i++)
 			newV[i] = allV.indexVector(i);
 		newV[oldVSize] = new Datum(ret);
+		allV.setMutable(true);
 		interpreter.getScope().setVariable(interpreter, interpreter.ALL, new Datum(newV), line, overrides);
+		allV.setMutable(false);
 		return new Datum(ret);
 	}
 
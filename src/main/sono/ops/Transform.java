@@ -1,6 +1,11 @@
 package main.sono.ops;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import main.phl.Cascade;
 import main.phl.Phone;
+import main.phl.Rule;
 import main.phl.Word;
 import main.sono.Datum;
 import main.sono.Interpreter;
@@ -26,15 +31,47 @@ public class Transform extends Binary {
 					return new Datum();
 				return new Datum(ret);
 			case RULE:
-				final Word result = datumB.getRule(line, overrides).transform(interpreter.getManager(),
-						datumA.getWord(line, overrides));
+				if (datumA.getType() == Datum.Type.VECTOR) {
+					final List<Rule> rule = new ArrayList<>();
+					rule.add(datumB.getRule(line, overrides));
+					return applyAll(new Cascade(interpreter.getManager(), rule, interpreter.getTrace()), datumA,
+							overrides);
+				}
+				final Word result = interpreter.getManager().getRuleCache().apply(interpreter.getManager(),
+						datumB.getRule(line, overrides), datumA.getWord(line, overrides), interpreter.getTrace());
 				return new Datum(result);
+			case VECTOR:
+				final List<Rule> rules = new ArrayList<>();
+				for (final Datum d : datumB.getVector(line, overrides))
+					rules.add(d.getRule(line, overrides));
+				final Cascade cascade = new Cascade(interpreter.getManager(), rules, interpreter.getTrace());
+				if (datumA.getType() == Datum.Type.VECTOR)
+					return applyAll(cascade, datumA, overrides);
+				return new Datum(cascade.apply(datumA.getWord(line, overrides)));
 			default:
 				throw new SonoRuntimeException("Cannot transform value <" + datumA.getDebugString(line, overrides)
 						+ "> with value <" + datumB.getDebugString(line, overrides) + ">", line);
 		}
 	}
 
+	/**
+	 * Applies the cascade to every word of the vector across cores, keeping the
+	 * order of the words.
+	 */
+	private Datum applyAll(final Cascade cascade, final Datum datumA, final Object[] overrides)
+			throws InterruptedException {
+		final Datum[] data = datumA.getVector(line, overrides);
+		final Word[] words = new Word[data.length];
+		for (int i = 0; i < data.length; i++)
+			words[i] = data[i].getWord(line, overrides);
+		checkInterrupted();
+		final Word[] results = cascade.applyAll(words);
+		final Datum[] applied = new Datum[results.length];
+		for (int i = 0; i < results.length; i++)
+			applied[i] = new Datum(results[i]);
+		return new Datum(applied);
+	}
+
 	@Override
 	public String toString() {
 		return a.toString() + " >> " + b.toString();
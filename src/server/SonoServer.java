@@ -89,7 +89,8 @@ public class SonoServer extends WebSocketServer {
 		}
 
 		try {
-			pl = new PhoneLoader(SonoWrapper.getGlobalOption("DATA"), false);
+			pl = new PhoneLoader(SonoWrapper.getGlobalOption("DATA"), false,
+					"LAZY".equals(SonoWrapper.getGlobalOption("INVENTORY")));
 		} catch (final IOException e) {
 			e.printStackTrace();
 		}